@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_ALLOW;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_DENY;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_ALLOW;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_DENY;
+
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.nutch.indexer.IndexWriterParams;
+
+/**
+ * Decides whether a document is indexed, using only its MIME type, URL and the length of its
+ * encoded content, so that rejected documents are neither decoded nor built into items.
+ *
+ * <p>Each list of globs, and each regular expression, is compiled into a single pattern. A
+ * {@code null} pattern or limit admits everything.
+ */
+class AdmissionFilter {
+  static final long NO_LIMIT = -1;
+
+  /** The result of {@link #check}. */
+  enum Decision {
+    ADMITTED(null),
+    REJECTED_MIME_TYPE(WriterStats.REJECTED_MIME_TYPE),
+    REJECTED_SIZE(WriterStats.REJECTED_SIZE),
+    REJECTED_URL(WriterStats.REJECTED_URL);
+
+    private final String counter;
+
+    Decision(String counter) {
+      this.counter = counter;
+    }
+
+    /** Returns the name of the {@link WriterStats} counter of rejected documents. */
+    String getCounter() {
+      return counter;
+    }
+  }
+
+  private final Pattern mimeAllow;
+  private final Pattern mimeDeny;
+  private final Pattern urlAllow;
+  private final Pattern urlDeny;
+  private final long maxContentBytes;
+
+  AdmissionFilter(
+      Pattern mimeAllow, Pattern mimeDeny, Pattern urlAllow, Pattern urlDeny,
+      long maxContentBytes) {
+    this.mimeAllow = mimeAllow;
+    this.mimeDeny = mimeDeny;
+    this.urlAllow = urlAllow;
+    this.urlDeny = urlDeny;
+    this.maxContentBytes = maxContentBytes;
+  }
+
+  static AdmissionFilter fromParameters(IndexWriterParams parameters) throws IOException {
+    long maxContentBytes =
+        ConfigParams.getLong(parameters, CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES, NO_LIMIT);
+    if (maxContentBytes < NO_LIMIT) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES + "'");
+    }
+    return new AdmissionFilter(
+        compileGlobs(parameters, CONFIG_KEY_ADMISSION_MIME_ALLOW),
+        compileGlobs(parameters, CONFIG_KEY_ADMISSION_MIME_DENY),
+        compileRegex(parameters, CONFIG_KEY_ADMISSION_URL_ALLOW),
+        compileRegex(parameters, CONFIG_KEY_ADMISSION_URL_DENY),
+        maxContentBytes);
+  }
+
+  /** Returns whether the filter can reject anything at all. */
+  boolean isEnabled() {
+    return mimeAllow != null
+        || mimeDeny != null
+        || urlAllow != null
+        || urlDeny != null
+        || maxContentBytes != NO_LIMIT;
+  }
+
+  /**
+   * Checks a document.
+   *
+   * @param contentType the MIME type, optionally with parameters such as the charset
+   * @param url the URL of the document, or {@code null}
+   * @param contentBytes the (estimated) content size in bytes, or {@code -1} if unknown
+   */
+  Decision check(String contentType, String url, long contentBytes) {
+    String mimeType = stripParameters(contentType);
+    if ((mimeAllow != null && !mimeAllow.matcher(mimeType).matches())
+        || (mimeDeny != null && mimeDeny.matcher(mimeType).matches())) {
+      return Decision.REJECTED_MIME_TYPE;
+    }
+    if (maxContentBytes != NO_LIMIT && contentBytes > maxContentBytes) {
+      return Decision.REJECTED_SIZE;
+    }
+    if (url != null
+        && ((urlAllow != null && !urlAllow.matcher(url).find())
+            || (urlDeny != null && urlDeny.matcher(url).find()))) {
+      return Decision.REJECTED_URL;
+    }
+    return Decision.ADMITTED;
+  }
+
+  /**
+   * Returns the number of bytes a Base64 string decodes to, without decoding it, or {@code -1}
+   * for {@code null}.
+   */
+  static long decodedLength(String base64) {
+    if (base64 == null) {
+      return -1;
+    }
+    int length = base64.length();
+    int padding = 0;
+    while (padding < 2 && length - padding > 0 && base64.charAt(length - padding - 1) == '=') {
+      padding++;
+    }
+    return (length / 4) * 3L + Math.max(length % 4 - 1, 0) - padding;
+  }
+
+  private static String stripParameters(String contentType) {
+    int separator = contentType.indexOf(';');
+    return (separator < 0 ? contentType : contentType.substring(0, separator)).trim();
+  }
+
+  private static Pattern compileGlobs(IndexWriterParams parameters, String key) {
+    List<String> globs = ConfigParams.getList(parameters, key);
+    if (globs.isEmpty()) {
+      return null;
+    }
+    StringBuilder regex = new StringBuilder();
+    for (String glob : globs) {
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      for (String literal : glob.split("\\*", -1)) {
+        regex.append(Pattern.quote(literal)).append(".*");
+      }
+      regex.setLength(regex.length() - 2);
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+  }
+
+  /**
+   * Compiles the regular expression of a parameter as is. It is not split into a list, since
+   * commas are common in regular expressions, as in {@code {1,3}}; alternatives are written with
+   * {@code |}.
+   */
+  private static Pattern compileRegex(IndexWriterParams parameters, String key)
+      throws IOException {
+    String regex = parameters.get(key);
+    if (Strings.isNullOrEmpty(regex)) {
+      return null;
+    }
+    try {
+      return Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      throw new IOException("Invalid value for '" + key + "'", e);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.apache.commons.io.input.CharSequenceInputStream;
+
+/**
+ * Content that is decoded from a Base64 string while it is read, so that large documents are
+ * never held in memory a second time in decoded form.
+ */
+final class Base64Content extends AbstractInputStreamContent {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final String base64;
+  private final long length;
+
+  Base64Content(String type, String base64) {
+    super(type);
+    this.base64 = base64;
+    this.length = AdmissionFilter.decodedLength(base64);
+  }
+
+  /**
+   * Returns whether the string is valid (optionally padded) Base64, without decoding it.
+   */
+  static boolean isValid(String base64) {
+    int length = base64.length();
+    int padding = 0;
+    while (padding < 2 && length - padding > 0 && base64.charAt(length - padding - 1) == '=') {
+      padding++;
+    }
+    if ((padding > 0 && length % 4 != 0) || length % 4 == 1) {
+      return false;
+    }
+    for (int i = 0; i < length - padding; i++) {
+      char c = base64.charAt(i);
+      if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+          || c == '+' || c == '/')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return Base64.getDecoder()
+        .wrap(new CharSequenceInputStream(base64, StandardCharsets.US_ASCII, BUFFER_SIZE));
+  }
+
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public boolean retrySupported() {
+    return true;
+  }
+
+  @Override
+  public Base64Content setType(String type) {
+    return (Base64Content) super.setType(type);
+  }
+
+  @Override
+  public Base64Content setCloseInputStream(boolean closeInputStream) {
+    return (Base64Content) super.setCloseInputStream(closeInputStream);
+  }
+}
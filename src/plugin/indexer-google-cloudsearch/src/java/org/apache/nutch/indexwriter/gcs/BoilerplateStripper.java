@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Strips the text that repeats across the pages of a host, such as navigation, headers and
+ * footers, from the text content of its documents.
+ *
+ * <p>The text is split into words, and every run of {@link #SHINGLE_WORDS} consecutive words, a
+ * shingle, is fingerprinted. Each host has a count-min sketch of the number of its documents
+ * that contain each shingle. The sketch is halved every {@code 2 * minDocuments} documents of
+ * the host, so that it follows the recent pages and its counters stay small. Words covered by
+ * at least {@link #MIN_RUN} consecutive shingles counted in {@code minDocuments} documents are
+ * stripped, which shingles found in half or more of the recent pages always are. Only the
+ * shingles near the start and the end of a document, where boilerplate usually is, are
+ * counted. This bounds the load of the sketch for long documents.
+ *
+ * <p>The first documents of a host are not stripped, since nothing is known about the host
+ * yet. A document that would be stripped completely is left unchanged. Memory is bounded by
+ * the number of hosts whose sketches are kept; the least recently used host is dropped first.
+ *
+ * <p>Documents can be stripped concurrently. Only the sketch of the host is locked while the
+ * document is counted and its shingles are looked up, so documents of different hosts do not
+ * wait for each other.
+ */
+final class BoilerplateStripper {
+  static final int SHINGLE_WORDS = 8;
+  static final int MIN_RUN = 2;
+  static final int EDGE_SHINGLES = 2048;
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1 << 15;
+
+  private final int minDocuments;
+  // Guarded by itself, since every lookup reorders it
+  private final Map<String, HostSketch> hosts;
+
+  /**
+   * @param minDocuments the number of recent documents of a host that must contain a shingle
+   *     for it to be stripped, at least 2
+   * @param maxHosts the number of hosts whose sketches are kept, each taking 256 KB
+   */
+  BoilerplateStripper(int minDocuments, int maxHosts) {
+    if (minDocuments < 2 || maxHosts < 1) {
+      throw new IllegalArgumentException(
+          "minDocuments must be at least 2 and maxHosts at least 1");
+    }
+    this.minDocuments = minDocuments;
+    this.hosts =
+        new LinkedHashMap<String, HostSketch>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, HostSketch> eldest) {
+            return size() > maxHosts;
+          }
+        };
+  }
+
+  /**
+   * Counts the shingles of a document of the host, and returns its text without the
+   * boilerplate of the host.
+   *
+   * @return the stripped text, or the same instance if nothing was stripped
+   */
+  String strip(String host, String text) {
+    Words words = Words.split(text);
+    if (words.count < SHINGLE_WORDS) {
+      return text;
+    }
+    long[] shingles = shingleHashes(text, words);
+    long[] edges = edgeShingles(shingles);
+    HostSketch sketch;
+    synchronized (hosts) {
+      sketch = hosts.computeIfAbsent(host, k -> new HostSketch());
+    }
+    boolean[] counted = new boolean[shingles.length];
+    synchronized (sketch) {
+      sketch.addDocument(edges);
+      if (sketch.documents % (2 * minDocuments) == 0) {
+        sketch.halve();
+      }
+      for (int i = 0; i < shingles.length; i++) {
+        counted[i] = sketch.estimate(shingles[i]) >= minDocuments;
+      }
+    }
+
+    boolean[] stripped = new boolean[words.count];
+    int strippedWords = 0;
+    int run = 0;
+    for (int i = 0; i <= shingles.length; i++) {
+      if (i < shingles.length && counted[i]) {
+        run++;
+        continue;
+      }
+      if (run >= MIN_RUN) {
+        // Shingles i - run to i - 1 cover the words i - run to i - 2 + SHINGLE_WORDS
+        for (int word = i - run; word < i - 1 + SHINGLE_WORDS; word++) {
+          if (!stripped[word]) {
+            stripped[word] = true;
+            strippedWords++;
+          }
+        }
+      }
+      run = 0;
+    }
+    if (strippedWords == 0 || strippedWords == words.count) {
+      return text;
+    }
+
+    // Each stripped word is removed with the whitespace that follows it
+    StringBuilder builder = new StringBuilder(text.length());
+    int copied = 0;
+    for (int i = 0; i < words.count; i++) {
+      if (!stripped[i]) {
+        continue;
+      }
+      if (i == 0 || !stripped[i - 1]) {
+        builder.append(text, copied, words.starts[i]);
+      }
+      copied = (i + 1 < words.count) ? words.starts[i + 1] : text.length();
+    }
+    builder.append(text, copied, text.length());
+    return builder.toString();
+  }
+
+  private static long[] shingleHashes(String text, Words words) {
+    long[] wordHashes = new long[words.count];
+    for (int i = 0; i < words.count; i++) {
+      wordHashes[i] = wordHash(text, words.starts[i], words.ends[i]);
+    }
+    long[] shingles = new long[words.count - SHINGLE_WORDS + 1];
+    for (int i = 0; i < shingles.length; i++) {
+      long hash = 0;
+      for (int j = 0; j < SHINGLE_WORDS; j++) {
+        hash = hash * 0x9E3779B97F4A7C15L + wordHashes[i + j];
+      }
+      shingles[i] = mix(hash);
+    }
+    return shingles;
+  }
+
+  /** Returns the shingles near the start and the end of the document, sorted. */
+  private static long[] edgeShingles(long[] shingles) {
+    long[] edges;
+    if (shingles.length <= 2 * EDGE_SHINGLES) {
+      edges = shingles.clone();
+    } else {
+      edges = Arrays.copyOf(shingles, 2 * EDGE_SHINGLES);
+      System.arraycopy(
+          shingles, shingles.length - EDGE_SHINGLES, edges, EDGE_SHINGLES, EDGE_SHINGLES);
+    }
+    Arrays.sort(edges);
+    return edges;
+  }
+
+  /** FNV-1a over the chars of the word. */
+  private static long wordHash(String text, int start, int end) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < end; i++) {
+      hash ^= text.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** The finalizer of MurmurHash3, so that all bits of the hash depend on all words. */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** The offsets of the whitespace separated words of a text. */
+  private static final class Words {
+    int count;
+    int[] starts = new int[64];
+    int[] ends = new int[64];
+
+    static Words split(String text) {
+      Words words = new Words();
+      int length = text.length();
+      int i = 0;
+      while (i < length) {
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+          i++;
+        }
+        if (i == length) {
+          break;
+        }
+        int start = i;
+        while (i < length && !Character.isWhitespace(text.charAt(i))) {
+          i++;
+        }
+        words.add(start, i);
+      }
+      return words;
+    }
+
+    private void add(int start, int end) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, 2 * count);
+        ends = Arrays.copyOf(ends, 2 * count);
+      }
+      starts[count] = start;
+      ends[count] = end;
+      count++;
+    }
+  }
+
+  /**
+   * A count-min sketch with conservative update, of the number of documents of a host that
+   * contain a shingle. Guarded by itself.
+   */
+  private static final class HostSketch {
+    private final char[] counters = new char[SKETCH_DEPTH * SKETCH_WIDTH];
+    private int documents;
+
+    /** Counts each distinct shingle of a document once. */
+    void addDocument(long[] sortedShingles) {
+      for (int i = 0; i < sortedShingles.length; i++) {
+        if (i == 0 || sortedShingles[i] != sortedShingles[i - 1]) {
+          increment(sortedShingles[i]);
+        }
+      }
+      documents++;
+    }
+
+    int estimate(long shingle) {
+      int min = Character.MAX_VALUE;
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        min = Math.min(min, counters[index(shingle, row)]);
+      }
+      return min;
+    }
+
+    void halve() {
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] >>= 1;
+      }
+    }
+
+    private void increment(long shingle) {
+      int min = estimate(shingle);
+      if (min == Character.MAX_VALUE) {
+        return;
+      }
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        int index = index(shingle, row);
+        if (counters[index] == min) {
+          counters[index]++;
+        }
+      }
+    }
+
+    private static int index(long shingle, int row) {
+      int h1 = (int) shingle;
+      int h2 = (int) (shingle >>> 32) | 1;
+      return row * SKETCH_WIDTH + ((h1 + row * h2) & (SKETCH_WIDTH - 1));
+    }
+  }
+}
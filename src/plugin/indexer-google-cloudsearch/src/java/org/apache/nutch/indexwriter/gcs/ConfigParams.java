@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import org.apache.nutch.indexer.IndexWriterParams;
+
+/**
+ * Typed access to optional index writer parameters.
+ *
+ * <p>Only {@code IndexWriterParams.get()} is used, so a missing parameter always falls back
+ * to the supplied default and a malformed one fails {@code open()} with an {@link IOException}.
+ */
+final class ConfigParams {
+  private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+  private ConfigParams() {}
+
+  static String getString(IndexWriterParams parameters, String key, String defaultValue) {
+    String value = parameters.get(key);
+    return Strings.isNullOrEmpty(value) ? defaultValue : value.trim();
+  }
+
+  static long getLong(IndexWriterParams parameters, String key, long defaultValue)
+      throws IOException {
+    String value = parameters.get(key);
+    if (Strings.isNullOrEmpty(value)) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid value for '" + key + "'", e);
+    }
+  }
+
+  static int getInt(IndexWriterParams parameters, String key, int defaultValue)
+      throws IOException {
+    long value = getLong(parameters, key, defaultValue);
+    if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+      throw new IOException("Invalid value for '" + key + "'");
+    }
+    return (int) value;
+  }
+
+  static boolean getBoolean(IndexWriterParams parameters, String key, boolean defaultValue)
+      throws IOException {
+    String value = parameters.get(key);
+    if (Strings.isNullOrEmpty(value)) {
+      return defaultValue;
+    }
+    switch (value.trim().toLowerCase()) {
+      case "true":
+        return true;
+      case "false":
+        return false;
+      default:
+        throw new IOException("Invalid value for '" + key + "'");
+    }
+  }
+
+  static List<String> getList(IndexWriterParams parameters, String key) {
+    String value = parameters.get(key);
+    if (Strings.isNullOrEmpty(value)) {
+      return Collections.emptyList();
+    }
+    return LIST_SPLITTER.splitToList(value);
+  }
+}
@@ -17,16 +17,37 @@
 
 package org.apache.nutch.indexwriter.gcs;
 
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.services.cloudsearch.v1.CloudSearch;
+import com.google.api.services.cloudsearch.v1.CloudSearchScopes;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.ItemAcl;
+import com.google.api.services.cloudsearch.v1.model.ItemContent;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.sdk.CredentialFactory;
+import com.google.enterprise.cloudsearch.sdk.GoogleProxy;
+import com.google.enterprise.cloudsearch.sdk.LocalFileCredentialFactory;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration;
 import com.google.enterprise.cloudsearch.sdk.indexing.Acl;
 import com.google.enterprise.cloudsearch.sdk.indexing.DefaultAcl;
@@ -40,14 +61,30 @@ import com.google.enterprise.cloudsearch.sdk.indexing.IndexingServiceImpl;
 import com.google.enterprise.cloudsearch.sdk.indexing.StructuredData;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.nutch.indexer.IndexWriter;
 import org.apache.nutch.indexer.IndexWriterParams;
 import org.apache.nutch.indexer.NutchDocument;
@@ -61,6 +98,44 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
 
   public static final String CONFIG_KEY_CONFIG_FILE = "gcs.config.file";
   public static final String CONFIG_KEY_UPLOAD_FORMAT = "gcs.uploadFormat";
+  public static final String CONFIG_KEY_SPOOL_DIR = "gcs.spool.dir";
+  public static final String CONFIG_KEY_SPOOL_MAX_RECORDS = "gcs.spool.maxRecordsPerSegment";
+  public static final String CONFIG_KEY_SPOOL_MAX_BYTES = "gcs.spool.maxBytesPerSegment";
+  public static final String CONFIG_KEY_TRANSPORT = "gcs.transport";
+  public static final String CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS = "gcs.transport.maxConnections";
+  public static final String CONFIG_KEY_TRANSPORT_CONNECT_TIMEOUT =
+      "gcs.transport.connectTimeoutMillis";
+  public static final String CONFIG_KEY_TRANSPORT_SOCKET_TIMEOUT =
+      "gcs.transport.socketTimeoutMillis";
+  public static final String CONFIG_KEY_TRANSPORT_POOL_TIMEOUT = "gcs.transport.poolTimeoutMillis";
+  public static final String CONFIG_KEY_TRANSPORT_KEEP_ALIVE = "gcs.transport.keepAliveMillis";
+  public static final String CONFIG_KEY_SCHEMA_VALIDATION = "gcs.schemaValidation";
+  public static final String CONFIG_KEY_FAIR_SHARE = "gcs.fairShare.enabled";
+  public static final String CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS = "gcs.fairShare.hostWeights";
+  public static final String CONFIG_KEY_FAIR_SHARE_MAX_QUEUED_DOCUMENTS =
+      "gcs.fairShare.maxQueuedDocuments";
+  public static final String CONFIG_KEY_FAIR_SHARE_MAX_QUEUED_BYTES =
+      "gcs.fairShare.maxQueuedBytes";
+  public static final String CONFIG_KEY_FAIR_SHARE_QUANTUM = "gcs.fairShare.quantumBytes";
+  public static final String CONFIG_KEY_METADATA_ONLY_UPDATES = "gcs.metadataOnlyUpdates";
+  public static final String CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS =
+      "gcs.metadataOnlyUpdates.lookupThreads";
+  public static final String CONFIG_KEY_ADMISSION_MIME_ALLOW = "gcs.admission.mimeTypes.allow";
+  public static final String CONFIG_KEY_ADMISSION_MIME_DENY = "gcs.admission.mimeTypes.deny";
+  public static final String CONFIG_KEY_ADMISSION_URL_ALLOW = "gcs.admission.urls.allow";
+  public static final String CONFIG_KEY_ADMISSION_URL_DENY = "gcs.admission.urls.deny";
+  public static final String CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES =
+      "gcs.admission.maxContentBytes";
+  public static final String CONFIG_KEY_LEDGER_DIR = "gcs.ledger.dir";
+  public static final String CONFIG_KEY_LEDGER_MAX_AGE = "gcs.ledger.maxAgeHours";
+  public static final String CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD =
+      "gcs.resumableUpload.thresholdBytes";
+  public static final String CONFIG_KEY_RESUMABLE_UPLOAD_CHUNK_SIZE =
+      "gcs.resumableUpload.chunkBytes";
+  public static final String CONFIG_KEY_RESUMABLE_UPLOAD_THREADS = "gcs.resumableUpload.threads";
+  public static final String CONFIG_KEY_INLINE_CONTENT_MAX_BYTES = "gcs.inlineContent.maxBytes";
+  public static final String CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS = "gcs.boilerplate.minDocuments";
+  public static final String CONFIG_KEY_BOILERPLATE_MAX_HOSTS = "gcs.boilerplate.maxHosts";
   public static final String FIELD_ID = "id";
   public static final String FIELD_URL = "url";
   public static final String FIELD_RAW_CONTENT = "binaryContent";
@@ -69,6 +144,29 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
 
   static final String ITEM_METADATA_TITLE_DEFAULT = "title";
   static final String ITEM_METADATA_UPDATE_TIME_DEFAULT = "lastModified";
+  static final long SPOOL_MAX_RECORDS_DEFAULT = 10000;
+  static final long SPOOL_MAX_BYTES_DEFAULT = 256L * 1024 * 1024;
+  static final int FAIR_SHARE_MAX_QUEUED_DOCUMENTS_DEFAULT = 1000;
+  static final long FAIR_SHARE_MAX_QUEUED_BYTES_DEFAULT = 256L * 1024 * 1024;
+  static final long FAIR_SHARE_QUANTUM_DEFAULT = 1024 * 1024;
+  static final int BOILERPLATE_MAX_HOSTS_DEFAULT = 32;
+  static final int METADATA_ONLY_LOOKUP_THREADS_DEFAULT = 8;
+  static final long LEDGER_MAX_AGE_HOURS_DEFAULT = 7 * 24;
+  static final int RESUMABLE_UPLOAD_CHUNK_SIZE_DEFAULT = 8 * 1024 * 1024;
+  static final int RESUMABLE_UPLOAD_THREADS_DEFAULT = 2;
+  static final String ROOT_URL = "api.rootUrl"; // as read by the SDK
+  // The proxy settings, as read by the SDK's GoogleProxy
+  static final String PROXY_HOSTNAME = "api.proxy.hostname";
+  static final String PROXY_PORT = "api.proxy.port";
+  static final String PROXY_TYPE = "api.proxy.type";
+  // The batching of asynchronous requests, as read by the SDK's BatchPolicy
+  static final String BATCH_SIZE = "batch.batchSize";
+  static final String BATCH_MAX_ACTIVE_BATCHES = "batch.maxActiveBatches";
+  static final int BATCH_SIZE_DEFAULT = 10;
+  static final int BATCH_MAX_ACTIVE_BATCHES_DEFAULT = 20;
+  // The maximum size of ItemContent.inlineContent, which is also the size up to which the SDK
+  // sends content inline
+  static final int API_INLINE_CONTENT_LIMIT = 100 * 1024;
 
   private final Helper helper;
   private String configPath;
@@ -76,6 +174,24 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
   private org.apache.hadoop.conf.Configuration config;
   private IndexingService indexingService;
   private DefaultAcl defaultAcl;
+  private ItemSpoolWriter spool;
+  private HttpTransportFactory transportFactory;
+  private HttpTransport transport;
+  private SchemaValidator.Mode schemaValidationMode = SchemaValidator.Mode.OFF;
+  private SchemaValidator schemaValidator;
+  private HostFairShareScheduler scheduler;
+  private boolean metadataOnlyUpdates;
+  private ExecutorService lookupExecutor;
+  // Per item ID, completed once the request for the last written document has been sent
+  private final ConcurrentMap<String, ListenableFuture<?>> pendingUpdates =
+      new ConcurrentHashMap<>();
+  private AdmissionFilter admissionFilter;
+  private BoilerplateStripper boilerplateStripper;
+  private UploadLedger ledger;
+  private ResumableContentUploader contentUploader;
+  private long resumableUploadThreshold = -1;
+  private long inlineContentMaxBytes = -1;
+  private final WriterStats stats = new WriterStats();
 
   public enum UploadFormat {
     RAW,
@@ -102,6 +218,14 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
     LOG.info("Starting up!");
     initSDKConfig(parameters);
     updateUploadFormat(parameters);
+    updateSchemaValidationMode(parameters);
+    admissionFilter = AdmissionFilter.fromParameters(parameters);
+    boilerplateStripper = createBoilerplateStripper(parameters);
+    spool = createSpool(parameters);
+    transportFactory = HttpTransportFactory.fromParameters(parameters);
+    if (transportFactory.getTransportType() != HttpTransportFactory.TransportType.DEFAULT) {
+      transport = transportFactory.createTransport(helper.getProxy());
+    }
     indexingService = createIndexingService();
     ((Service) indexingService).startAsync().awaitRunning();
     defaultAcl = helper.initDefaultAclFromConfig(indexingService);
@@ -110,6 +234,19 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
         StructuredData.initFromConfiguration(indexingService);
       }
     }
+    if (schemaValidationMode != SchemaValidator.Mode.OFF) {
+      schemaValidator = new SchemaValidator(indexingService.getSchema());
+    }
+    scheduler = createScheduler(parameters);
+    ledger = createLedger(parameters);
+    updateInlineContentMaxBytes(parameters);
+    contentUploader = createContentUploader(parameters);
+    metadataOnlyUpdates =
+        ConfigParams.getBoolean(parameters, CONFIG_KEY_METADATA_ONLY_UPDATES, false)
+            && spool == null;
+    if (metadataOnlyUpdates) {
+      lookupExecutor = createLookupExecutor(parameters);
+    }
   }
 
   @Override
@@ -123,21 +260,334 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
           "ContentType ('type') field is missing, please enable the index-more plugin!");
     }
 
-    AbstractInputStreamContent contentStream = getInputStreamContent(doc, contentType);
+    if (ledger != null && ledger.isDelivered(UploadLedger.OP_INDEX, id)) {
+      stats.increment(WriterStats.DOCUMENTS_ALREADY_DELIVERED);
+      LOG.debug("Document ({}) already delivered by another task attempt: {}", contentType, url);
+      return;
+    }
+    if (admissionFilter.isEnabled() && !admit(doc, contentType, url)) {
+      return;
+    }
+
+    AbstractInputStreamContent contentStream = getInputStreamContent(doc, contentType, url);
+    ContentFormat contentFormat =
+        uploadFormat == UploadFormat.RAW ? ContentFormat.RAW : ContentFormat.TEXT;
+    Item item;
     try {
-      Item item = createItem(doc, contentType);
+      item = createItem(doc, contentType);
       // Try DefaultAcl, grant customer's GSuite domain if unavailable
       if (!defaultAcl.applyToIfEnabled(item)) {
         item.setAcl(
             new ItemAcl().setReaders(Collections.singletonList(Acl.getCustomerPrincipal())));
       }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Exception caught while indexing: ", e);
+      stats.increment(WriterStats.DOCUMENTS_FAILED);
+      return;
+    }
+
+    if (schemaValidator != null && !validateItem(item, url)) {
+      return;
+    }
+
+    if (spool != null) {
+      // Spool failures are not swallowed, since the document would be lost silently.
+      spool.writeIndex(item, contentStream, contentFormat);
+      stats.increment(WriterStats.DOCUMENTS_SPOOLED);
+      LOG.debug("Document ({}) spooled: {}", contentType, url);
+      return;
+    }
 
-      indexingService.indexItemAndContent(
-          item,
-          contentStream,
-          null, // hash, since push queues are not used
-          uploadFormat == UploadFormat.RAW ? ContentFormat.RAW : ContentFormat.TEXT,
-          RequestMode.ASYNCHRONOUS);
+    Supplier<ListenableFuture<?>> upload;
+    long cost;
+    if (metadataOnlyUpdates) {
+      // Of the text before boilerplate is stripped, since what is stripped depends on the
+      // documents seen before, not on the document itself.
+      String contentHash =
+          (boilerplateStripper != null)
+              ? ItemFingerprints.contentHash(
+                  (String) doc.getFieldValue(FIELD_TEXT_CONTENT), contentFormat)
+              : ItemFingerprints.contentHash(contentStream, contentFormat);
+      String metadataHash = ItemFingerprints.metadataHash(item);
+      item.getMetadata().setHash(metadataHash);
+      upload = () -> updateIfChanged(id, item, contentStream, contentHash, metadataHash,
+          contentFormat, contentType, url, stopWatch);
+      cost = Math.max(contentStream.getLength(), 0);
+    } else {
+      upload = () -> indexItem(item, contentStream, null, contentFormat, contentType, url,
+          stopWatch);
+      cost = Math.max(contentStream.getLength(), 0);
+    }
+
+    if (ledger != null) {
+      upload = ledger.recordWhenAcknowledged(UploadLedger.OP_INDEX, id, upload);
+    }
+    if (scheduler != null) {
+      submitToScheduler(url, cost, upload);
+      return;
+    }
+    upload.get();
+  }
+
+  /**
+   * Checks the document against the admission filter, using the length of the still encoded
+   * content.
+   *
+   * @return whether the document should be indexed
+   */
+  private boolean admit(NutchDocument doc, String contentType, String url) {
+    long contentBytes;
+    if (uploadFormat == UploadFormat.RAW) {
+      Object content = doc.getFieldValue(FIELD_RAW_CONTENT);
+      contentBytes =
+          (content instanceof String) ? AdmissionFilter.decodedLength((String) content) : -1;
+    } else {
+      Object content = doc.getFieldValue(FIELD_TEXT_CONTENT);
+      // The number of chars is a lower bound of the UTF-8 length, and does not need encoding.
+      contentBytes = (content instanceof String) ? ((String) content).length() : -1;
+    }
+    AdmissionFilter.Decision decision = admissionFilter.check(contentType, url, contentBytes);
+    if (decision == AdmissionFilter.Decision.ADMITTED) {
+      return true;
+    }
+    stats.increment(decision.getCounter());
+    LOG.debug("Document ({}, {} bytes) not admitted, {}: {}", contentType, contentBytes,
+        decision, url);
+    return false;
+  }
+
+  /**
+   * Looks up the fingerprints stored with the item on the lookup executor, and then sends the
+   * item with its content, sends its metadata only, or skips it, depending on what changed.
+   * Lookups of different items run concurrently, while the requests for one item are sent in the
+   * order its documents were written.
+   *
+   * @return the future of the request, which fails if the request could not be sent
+   */
+  private ListenableFuture<?> updateIfChanged(
+      String id,
+      Item item,
+      AbstractInputStreamContent contentStream,
+      String contentHash,
+      String metadataHash,
+      ContentFormat contentFormat,
+      String contentType,
+      String url,
+      Stopwatch stopWatch) {
+    awaitPendingUpdate(id);
+    SettableFuture<Void> sent = SettableFuture.create();
+    pendingUpdates.put(id, sent);
+    SettableFuture<Object> result = SettableFuture.create();
+    lookupExecutor.execute(
+        () -> {
+          try {
+            Item previous = getPreviousItem(id);
+            ListenableFuture<?> request;
+            ItemContent storedContent =
+                (previous == null) ? null : resendableContent(previous.getContent());
+            if (previous == null
+                || !contentHash.equals(ItemFingerprints.storedContentHash(previous))) {
+              request = indexItem(item, contentStream, contentHash, contentFormat, contentType,
+                  url, stopWatch);
+            } else if (metadataHash.equals(ItemFingerprints.storedMetadataHash(previous))) {
+              stats.increment(WriterStats.DOCUMENTS_UNCHANGED);
+              LOG.debug("Document ({}) unchanged: {}", contentType, url);
+              result.set(null);
+              return;
+            } else if (storedContent == null) {
+              LOG.debug("Document ({}) content not stored inline, uploading it again: {}",
+                  contentType, url);
+              request = indexItem(item, contentStream, contentHash, contentFormat, contentType,
+                  url, stopWatch);
+            } else {
+              // Keep the stored content, which carries the content hash for the next comparison.
+              item.setContent(storedContent);
+              request = indexMetadata(item, contentType, url, stopWatch);
+            }
+            if (request == null) {
+              result.setException(new IOException("Failed to index " + url));
+            } else {
+              result.setFuture(request);
+            }
+          } catch (RuntimeException e) {
+            LOG.warn("Exception caught while indexing: ", e);
+            stats.increment(WriterStats.DOCUMENTS_FAILED);
+            result.setException(e);
+          } finally {
+            pendingUpdates.remove(id, sent);
+            sent.set(null);
+          }
+        });
+    return result;
+  }
+
+  /** Waits until the request for the last written document of the item has been sent. */
+  private void awaitPendingUpdate(String id) {
+    ListenableFuture<?> pending = pendingUpdates.get(id);
+    if (pending != null) {
+      Futures.getUnchecked(pending);
+    }
+  }
+
+  /** Waits until the requests for all written documents have been sent. */
+  @VisibleForTesting
+  void awaitPendingUpdates() {
+    for (ListenableFuture<?> pending : pendingUpdates.values()) {
+      Futures.getUnchecked(pending);
+    }
+  }
+
+  /**
+   * Returns the item as it was indexed by a previous run, or {@code null} if it is not known
+   * to the indexing service or could not be retrieved.
+   */
+  private Item getPreviousItem(String id) {
+    try {
+      return indexingService.getItem(id);
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+        LOG.warn("Failed to get previous item, indexing it with content: {}", id, e);
+      }
+      return null;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Failed to get previous item, indexing it with content: {}", id, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the stored content of an item as it can be sent back with new metadata, or
+   * {@code null} if its bytes are not inline. The API replaces the content of an item with what
+   * is sent, and a reference to an earlier upload may have expired.
+   */
+  private static ItemContent resendableContent(ItemContent stored) {
+    if (stored == null || stored.getInlineContent() == null) {
+      return null;
+    }
+    return new ItemContent()
+        .setInlineContent(stored.getInlineContent())
+        .setContentFormat(stored.getContentFormat())
+        .setHash(stored.getHash());
+  }
+
+  /**
+   * Sends the item with its metadata and structured data only, since its content is unchanged.
+   *
+   * @return the future of the request, or {@code null} if it could not be sent
+   */
+  private ListenableFuture<?> indexMetadata(
+      Item item, String contentType, String url, Stopwatch stopWatch) {
+    try {
+      ListenableFuture<?> result = indexingService.indexItem(item, RequestMode.ASYNCHRONOUS);
+      if (result != null) {
+        countWhenAcknowledged(
+            result, () -> stats.increment(WriterStats.DOCUMENTS_METADATA_ONLY));
+      }
+      stopWatch.stop();
+      LOG.info(
+          "Document ("
+              + contentType
+              + ") metadata updated ("
+              + stopWatch.elapsed(TimeUnit.MILLISECONDS)
+              + "ms): "
+              + url);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Exception caught while indexing: ", e);
+      stats.increment(WriterStats.DOCUMENTS_FAILED);
+      return null;
+    }
+  }
+
+  /**
+   * Counts the indexed document, and how its content was sent, once the indexing API has
+   * acknowledged the request.
+   */
+  private void countIndexedWhenAcknowledged(
+      ListenableFuture<?> result, boolean inline, boolean resumable, long length) {
+    countWhenAcknowledged(
+        result,
+        () -> {
+          stats.increment(WriterStats.DOCUMENTS_INDEXED);
+          if (resumable) {
+            stats.increment(WriterStats.RESUMABLE_UPLOADS);
+          }
+          if (inline) {
+            stats.increment(WriterStats.CONTENT_INLINE);
+            stats.add(WriterStats.CONTENT_INLINE_BYTES, length);
+          } else {
+            stats.increment(WriterStats.CONTENT_UPLOADED);
+            stats.add(WriterStats.CONTENT_UPLOADED_BYTES, Math.max(length, 0));
+          }
+        });
+  }
+
+  /**
+   * Runs the counting of a request once the indexing API has acknowledged it, or counts the
+   * document as failed, so that the summary only reports what was delivered.
+   */
+  private void countWhenAcknowledged(ListenableFuture<?> result, Runnable count) {
+    Futures.addCallback(
+        result,
+        new FutureCallback<Object>() {
+          @Override
+          public void onSuccess(Object operationResult) {
+            count.run();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            stats.increment(WriterStats.DOCUMENTS_FAILED);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Sends the item and its content to the indexing service.
+   *
+   * @return the future of the request, or {@code null} if it could not be sent
+   */
+  private ListenableFuture<?> indexItem(
+      Item item,
+      AbstractInputStreamContent contentStream,
+      String contentHash,
+      ContentFormat contentFormat,
+      String contentType,
+      String url,
+      Stopwatch stopWatch) {
+    try {
+      ListenableFuture<?> result;
+      long length = contentStream.getLength();
+      boolean inline;
+      boolean resumable = false;
+      if (length >= 0 && length <= inlineContentMaxBytes) {
+        // A single request, instead of leaving the choice to the SDK
+        item.setContent(
+            new ItemContent()
+                .encodeInlineContent(ByteStreams.toByteArray(contentStream.getInputStream()))
+                .setContentFormat(contentFormat.name())
+                .setHash(contentHash));
+        result = indexingService.indexItem(item, RequestMode.ASYNCHRONOUS);
+        inline = true;
+      } else if (contentUploader != null && length > resumableUploadThreshold) {
+        result =
+            contentUploader.indexItemAndContent(item, contentStream, contentHash, contentFormat);
+        resumable = true;
+        inline = false;
+      } else {
+        result =
+            indexingService.indexItemAndContent(
+                item,
+                contentStream,
+                contentHash,
+                contentFormat,
+                RequestMode.ASYNCHRONOUS);
+        inline = (length >= 0 && length <= API_INLINE_CONTENT_LIMIT);
+      }
+      if (result != null) {
+        countIndexedWhenAcknowledged(result, inline, resumable, length);
+      }
       stopWatch.stop();
       // TODO(sfruhwald) Change this to debug, add summary info message to close()
       LOG.info(
@@ -150,17 +600,68 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
               + stopWatch.elapsed(TimeUnit.MILLISECONDS)
               + "ms): "
               + url);
+      return result;
     } catch (IOException | RuntimeException e) {
       LOG.warn("Exception caught while indexing: ", e);
+      stats.increment(WriterStats.DOCUMENTS_FAILED);
+      return null;
     }
   }
 
-  private AbstractInputStreamContent getInputStreamContent(NutchDocument doc, String contentType)
+  private void submitToScheduler(String url, long cost, Supplier<ListenableFuture<?>> upload)
       throws IOException {
+    try {
+      scheduler.submit(getHost(url), cost, upload);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while queuing document: " + url, e);
+    }
+  }
+
+  /** Returns the host of the URL, or an empty string if it has none. */
+  private static String getHost(String url) {
+    try {
+      return new URL(url).getHost();
+    } catch (MalformedURLException | NullPointerException e) {
+      return "";
+    }
+  }
+
+  /**
+   * Validates the item against the schema, repairing it if configured.
+   *
+   * @return whether the item should be indexed
+   */
+  private boolean validateItem(Item item, String url) {
+    boolean repair = schemaValidationMode == SchemaValidator.Mode.REPAIR;
+    List<String> problems = schemaValidator.validate(item, repair);
+    if (problems.isEmpty()) {
+      return true;
+    }
+    if (repair) {
+      stats.increment(WriterStats.VALIDATION_REPAIRED);
+      LOG.info("Document repaired to match the schema {}: {}", problems, url);
+      return true;
+    }
+    stats.increment(WriterStats.VALIDATION_REJECTED);
+    LOG.warn("Document rejected, it does not match the schema {}: {}", problems, url);
+    return false;
+  }
+
+  private AbstractInputStreamContent getInputStreamContent(
+      NutchDocument doc, String contentType, String url) throws IOException {
     if (uploadFormat == UploadFormat.RAW) {
       try {
-        byte[] contentBytes =
-            Base64.getDecoder().decode((String) doc.getFieldValue(FIELD_RAW_CONTENT));
+        String rawContent = (String) doc.getFieldValue(FIELD_RAW_CONTENT);
+        if (contentUploader != null
+            && AdmissionFilter.decodedLength(rawContent) > resumableUploadThreshold) {
+          // Decoded while it is uploaded, instead of holding a decoded copy in memory
+          if (!Base64Content.isValid(rawContent)) {
+            throw new IllegalArgumentException("Illegal Base64 content");
+          }
+          return new Base64Content(contentType, rawContent);
+        }
+        byte[] contentBytes = Base64.getDecoder().decode(rawContent);
         return new ByteArrayContent(contentType, contentBytes);
       } catch (IllegalArgumentException | NullPointerException e) {
         throw new IOException(
@@ -174,6 +675,16 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
       throw new IOException(
           "Text content ('content') field is missing, please enable the index-basic plugin!");
     }
+    if (boilerplateStripper != null) {
+      String strippedContent = boilerplateStripper.strip(getHost(url), textContent);
+      if (strippedContent != textContent) {
+        stats.increment(WriterStats.DOCUMENTS_BOILERPLATE_STRIPPED);
+        stats.add(
+            WriterStats.BOILERPLATE_CHARS_STRIPPED,
+            textContent.length() - strippedContent.length());
+        textContent = strippedContent;
+      }
+    }
     return new ByteArrayContent(contentType, textContent.getBytes(StandardCharsets.UTF_8));
   }
 
@@ -195,7 +706,12 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
   private IndexingService createIndexingService() throws IOException {
     IndexingService indexingService;
     try {
-      indexingService = helper.createIndexingService();
+      if (transport == null) {
+        indexingService = helper.createIndexingService();
+      } else {
+        LOG.info("Using {} HTTP transport", transportFactory.getTransportType());
+        indexingService = helper.createIndexingService(transport);
+      }
     } catch (GeneralSecurityException | IOException e) {
       throw new IOException("failed to create IndexingService", e);
     }
@@ -205,8 +721,39 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
   @Override
   public void delete(String key) throws IOException {
     // TODO(sfruhwald) Add debug level, per-document logging here, like in write()
-    indexingService.deleteItem(key, Long.toString(helper.getCurrentTimeMillis()).getBytes(),
-        RequestMode.ASYNCHRONOUS);
+    if (ledger != null && ledger.isDelivered(UploadLedger.OP_DELETE, key)) {
+      stats.increment(WriterStats.DOCUMENTS_ALREADY_DELIVERED);
+      return;
+    }
+    byte[] version = Long.toString(helper.getCurrentTimeMillis()).getBytes();
+    if (spool != null) {
+      spool.writeDelete(key, version);
+    } else if (scheduler != null || ledger != null) {
+      Supplier<ListenableFuture<?>> upload = () -> deleteItem(key, version);
+      if (ledger != null) {
+        upload = ledger.recordWhenAcknowledged(UploadLedger.OP_DELETE, key, upload);
+      }
+      if (scheduler != null) {
+        // Deletes are queued as well, so that they keep their order with the writes of the host.
+        submitToScheduler(key, 0, upload);
+      } else {
+        upload.get();
+      }
+    } else {
+      awaitPendingUpdate(key);
+      indexingService.deleteItem(key, version, RequestMode.ASYNCHRONOUS);
+    }
+    stats.increment(WriterStats.DOCUMENTS_DELETED);
+  }
+
+  private ListenableFuture<?> deleteItem(String key, byte[] version) {
+    try {
+      awaitPendingUpdate(key);
+      return indexingService.deleteItem(key, version, RequestMode.ASYNCHRONOUS);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Exception caught while deleting: ", e);
+      return null;
+    }
   }
 
   @Override
@@ -220,15 +767,76 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
   }
 
   @Override
-  public void close() {
+  public void close() throws IOException {
     Stopwatch stopWatch = Stopwatch.createStarted();
-    if ((indexingService != null) && indexingService.isRunning()) {
-      ((Service) indexingService).stopAsync().awaitTerminated();
+    if (scheduler != null) {
+      try {
+        scheduler.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted while waiting for queued uploads");
+      }
+      scheduler = null;
+    }
+    if (lookupExecutor != null) {
+      // Before the content uploader, which the lookups may still hand content to.
+      lookupExecutor.shutdown();
+      try {
+        while (!lookupExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOG.info("Waiting for previous item lookups to finish");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted while waiting for previous item lookups");
+      }
+      lookupExecutor = null;
+    }
+    if (contentUploader != null) {
+      contentUploader.close();
+      contentUploader = null;
+    }
+    if (spool != null) {
+      try {
+        spool.close();
+      } catch (IOException e) {
+        // Fail the task, so that its segments are written again by a retry.
+        throw new IOException("Failed to publish spool segments", e);
+      } finally {
+        spool = null;
+        stopIndexingService();
+      }
+    } else {
+      stopIndexingService();
+    }
+    if (ledger != null) {
+      // After the indexing service is stopped, so that all acknowledgements are recorded.
+      try {
+        ledger.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close upload ledger", e);
+      }
+      ledger = null;
     }
     stopWatch.stop();
+    LOG.info("Summary: {}", stats);
     LOG.info("Shutting down (took: " + stopWatch.elapsed(TimeUnit.MILLISECONDS) + "ms)!");
   }
 
+  private void stopIndexingService() {
+    if ((indexingService != null) && indexingService.isRunning()) {
+      ((Service) indexingService).stopAsync().awaitTerminated();
+    }
+    if (transport != null) {
+      // Shared with the content uploader, which is closed before the indexing service.
+      try {
+        transport.shutdown();
+      } catch (IOException e) {
+        LOG.warn("Failed to shut down HTTP transport", e);
+      }
+      transport = null;
+    }
+  }
+
   @Override
   public String describe() {
     return "Google Cloud Search Indexer";
@@ -255,6 +863,242 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
     }
   }
 
+  private void updateSchemaValidationMode(IndexWriterParams parameters) throws IOException {
+    String modeValue = parameters.get(CONFIG_KEY_SCHEMA_VALIDATION);
+    if (modeValue != null) {
+      try {
+        schemaValidationMode = SchemaValidator.Mode.valueOf(modeValue.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Unknown value for '" + CONFIG_KEY_SCHEMA_VALIDATION + "'", e);
+      }
+    }
+  }
+
+  private void updateInlineContentMaxBytes(IndexWriterParams parameters) throws IOException {
+    inlineContentMaxBytes =
+        ConfigParams.getLong(parameters, CONFIG_KEY_INLINE_CONTENT_MAX_BYTES, -1);
+    if (inlineContentMaxBytes < -1 || inlineContentMaxBytes > API_INLINE_CONTENT_LIMIT) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_INLINE_CONTENT_MAX_BYTES + "'");
+    }
+  }
+
+  @VisibleForTesting
+  WriterStats getStats() {
+    return stats;
+  }
+
+  private HostFairShareScheduler createScheduler(IndexWriterParams parameters)
+      throws IOException {
+    if (!ConfigParams.getBoolean(parameters, CONFIG_KEY_FAIR_SHARE, false) || spool != null) {
+      return null;
+    }
+    Map<String, Integer> hostWeights = new HashMap<>();
+    for (String entry : ConfigParams.getList(parameters, CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS)) {
+      int separator = entry.lastIndexOf(':');
+      try {
+        int weight = Integer.parseInt(entry.substring(separator + 1).trim());
+        if (separator <= 0 || weight < 1) {
+          throw new NumberFormatException(entry);
+        }
+        hostWeights.put(entry.substring(0, separator).trim(), weight);
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid value for '" + CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS + "'", e);
+      }
+    }
+    long quantum =
+        ConfigParams.getLong(parameters, CONFIG_KEY_FAIR_SHARE_QUANTUM, FAIR_SHARE_QUANTUM_DEFAULT);
+    if (quantum < 1) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_FAIR_SHARE_QUANTUM + "'");
+    }
+    // As many uploads in flight as the indexing service sends at once
+    int maxInFlight =
+        getConfiguredInt(BATCH_SIZE, BATCH_SIZE_DEFAULT)
+            * getConfiguredInt(BATCH_MAX_ACTIVE_BATCHES, BATCH_MAX_ACTIVE_BATCHES_DEFAULT);
+    HostFairShareScheduler scheduler =
+        new HostFairShareScheduler(
+            maxInFlight,
+            ConfigParams.getInt(
+                parameters,
+                CONFIG_KEY_FAIR_SHARE_MAX_QUEUED_DOCUMENTS,
+                FAIR_SHARE_MAX_QUEUED_DOCUMENTS_DEFAULT),
+            ConfigParams.getLong(
+                parameters,
+                CONFIG_KEY_FAIR_SHARE_MAX_QUEUED_BYTES,
+                FAIR_SHARE_MAX_QUEUED_BYTES_DEFAULT),
+            quantum,
+            hostWeights);
+    scheduler.start();
+    LOG.info("Scheduling uploads per host, with weights {} and up to {} uploads in flight",
+        hostWeights, maxInFlight);
+    return scheduler;
+  }
+
+  /** Reads a positive integer from the SDK configuration. */
+  private static int getConfiguredInt(String key, int defaultValue) throws IOException {
+    try {
+      int value =
+          Integer.parseInt(
+              Configuration.getString(key, Integer.toString(defaultValue)).get().trim());
+      if (value >= 1) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new IOException("Invalid value for '" + key + "'");
+  }
+
+  private ExecutorService createLookupExecutor(IndexWriterParams parameters)
+      throws IOException {
+    int threads =
+        ConfigParams.getInt(
+            parameters,
+            CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS,
+            METADATA_ONLY_LOOKUP_THREADS_DEFAULT);
+    if (threads < 1) {
+      throw new IOException(
+          "Invalid value for '" + CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS + "'");
+    }
+    LOG.info("Looking up previous items with {} threads", threads);
+    // Writing blocks, by looking up the item itself, while all threads are busy.
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        0,
+        TimeUnit.MILLISECONDS,
+        new SynchronousQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("gcs-lookup-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  private BoilerplateStripper createBoilerplateStripper(IndexWriterParams parameters)
+      throws IOException {
+    int minDocuments = ConfigParams.getInt(parameters, CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS, 0);
+    int maxHosts =
+        ConfigParams.getInt(
+            parameters, CONFIG_KEY_BOILERPLATE_MAX_HOSTS, BOILERPLATE_MAX_HOSTS_DEFAULT);
+    if (minDocuments < 0 || minDocuments == 1) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS + "'");
+    }
+    if (maxHosts < 1) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_BOILERPLATE_MAX_HOSTS + "'");
+    }
+    if (minDocuments == 0) {
+      return null;
+    }
+    if (uploadFormat != UploadFormat.TEXT) {
+      LOG.warn("Ignoring '{}', boilerplate is only stripped from TEXT content",
+          CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS);
+      return null;
+    }
+    LOG.info("Stripping text found in {} recent documents of a host, for up to {} hosts",
+        minDocuments, maxHosts);
+    return new BoilerplateStripper(minDocuments, maxHosts);
+  }
+
+  private ResumableContentUploader createContentUploader(IndexWriterParams parameters)
+      throws IOException {
+    resumableUploadThreshold =
+        ConfigParams.getLong(parameters, CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD, -1);
+    if (inlineContentMaxBytes >= 0
+        && (resumableUploadThreshold < 0 || resumableUploadThreshold > inlineContentMaxBytes)) {
+      // The SDK would still send content up to the API limit inline
+      resumableUploadThreshold = inlineContentMaxBytes;
+    }
+    if (resumableUploadThreshold < 0 || spool != null) {
+      return null;
+    }
+    int chunkSize =
+        ConfigParams.getInt(
+            parameters,
+            CONFIG_KEY_RESUMABLE_UPLOAD_CHUNK_SIZE,
+            RESUMABLE_UPLOAD_CHUNK_SIZE_DEFAULT);
+    if (chunkSize <= 0 || chunkSize % MediaHttpUploader.MINIMUM_CHUNK_SIZE != 0) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_RESUMABLE_UPLOAD_CHUNK_SIZE + "'");
+    }
+    int threads =
+        ConfigParams.getInt(
+            parameters, CONFIG_KEY_RESUMABLE_UPLOAD_THREADS, RESUMABLE_UPLOAD_THREADS_DEFAULT);
+    if (threads < 1) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_RESUMABLE_UPLOAD_THREADS + "'");
+    }
+    try {
+      ResumableContentUploader uploader =
+          helper.createContentUploader(
+              indexingService,
+              transport,
+              transportFactory.createRequestInitializer(),
+              chunkSize,
+              threads);
+      LOG.info("Uploading content larger than {} bytes in chunks of {} bytes",
+          resumableUploadThreshold, chunkSize);
+      return uploader;
+    } catch (GeneralSecurityException | IOException e) {
+      throw new IOException("failed to create content uploader", e);
+    }
+  }
+
+  private UploadLedger createLedger(IndexWriterParams parameters) throws IOException {
+    String ledgerDir = ConfigParams.getString(parameters, CONFIG_KEY_LEDGER_DIR, null);
+    if (ledgerDir == null || spool != null) {
+      return null;
+    }
+    org.apache.hadoop.conf.Configuration conf =
+        (config == null) ? new org.apache.hadoop.conf.Configuration() : config;
+    String attemptId = conf.get("mapreduce.task.attempt.id");
+    if (attemptId == null) {
+      LOG.warn("Not running as a task attempt, ignoring '{}'", CONFIG_KEY_LEDGER_DIR);
+      return null;
+    }
+    TaskAttemptID attempt;
+    try {
+      attempt = TaskAttemptID.forName(attemptId);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid task attempt id: " + attemptId, e);
+    }
+    long maxAgeHours =
+        ConfigParams.getLong(parameters, CONFIG_KEY_LEDGER_MAX_AGE, LEDGER_MAX_AGE_HOURS_DEFAULT);
+    if (maxAgeHours < 0) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_LEDGER_MAX_AGE + "'");
+    }
+    Path directory = new Path(ledgerDir);
+    return UploadLedger.open(
+        directory.getFileSystem(conf), directory, attempt, TimeUnit.HOURS.toMillis(maxAgeHours));
+  }
+
+  private ItemSpoolWriter createSpool(IndexWriterParams parameters) throws IOException {
+    String spoolDir = ConfigParams.getString(parameters, CONFIG_KEY_SPOOL_DIR, null);
+    if (spoolDir == null) {
+      return null;
+    }
+    org.apache.hadoop.conf.Configuration conf =
+        (config == null) ? new org.apache.hadoop.conf.Configuration() : config;
+    Path directory = new Path(spoolDir);
+    FileSystem fs = directory.getFileSystem(conf);
+    fs.mkdirs(directory);
+    // Attempts of one task publish their segments under the same task ID, only once.
+    String attemptId = conf.get("mapreduce.task.attempt.id");
+    String taskId;
+    if (attemptId == null) {
+      attemptId = UUID.randomUUID().toString();
+      taskId = attemptId;
+    } else {
+      try {
+        taskId = TaskAttemptID.forName(attemptId).getTaskID().toString();
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid task attempt id: " + attemptId, e);
+      }
+    }
+    LOG.info("Spooling items to {} instead of uploading them", directory);
+    return new ItemSpoolWriter(
+        fs,
+        directory,
+        taskId,
+        attemptId,
+        ConfigParams.getLong(parameters, CONFIG_KEY_SPOOL_MAX_RECORDS, SPOOL_MAX_RECORDS_DEFAULT),
+        ConfigParams.getLong(parameters, CONFIG_KEY_SPOOL_MAX_BYTES, SPOOL_MAX_BYTES_DEFAULT));
+  }
+
   private void initSDKConfig(IndexWriterParams parameters) throws IOException {
     configPath = parameters.get(CONFIG_KEY_CONFIG_FILE);
     if (configPath == null) {
@@ -273,6 +1117,7 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
   }
 
   static class Helper {
+    private CredentialFactory credentialFactory;
 
     boolean isConfigInitialized() {
       return Configuration.isInitialized();
@@ -290,10 +1135,102 @@ public class GoogleCloudSearchIndexWriter implements IndexWriter {
       return System.currentTimeMillis();
     }
 
+    /**
+     * Returns the credential factory the SDK creates by default, created once, so that all
+     * clients of the writer authenticate with the same credentials.
+     */
+    private synchronized CredentialFactory getCredentialFactory()
+        throws IOException, GeneralSecurityException {
+      if (credentialFactory == null) {
+        credentialFactory = LocalFileCredentialFactory.fromConfiguration();
+      }
+      return credentialFactory;
+    }
+
     IndexingService createIndexingService() throws IOException, GeneralSecurityException {
       return IndexingServiceImpl.Builder
-          .fromConfiguration(Optional.empty() /* credential factory */, this.getClass().getName())
+          .fromConfiguration(Optional.of(getCredentialFactory()), this.getClass().getName())
+          .build();
+    }
+
+    IndexingService createIndexingService(HttpTransport transport)
+        throws IOException, GeneralSecurityException {
+      return IndexingServiceImpl.Builder
+          .fromConfiguration(Optional.of(getCredentialFactory()), this.getClass().getName())
+          .setTransport(transport)
           .build();
     }
+
+    /**
+     * Returns the proxy configured for the SDK, read from the same settings as
+     * {@link GoogleProxy}, or {@link Proxy#NO_PROXY} if there is none.
+     */
+    Proxy getProxy() throws IOException {
+      String hostname = Configuration.getString(PROXY_HOSTNAME, "").get().trim();
+      if (hostname.isEmpty()) {
+        return Proxy.NO_PROXY;
+      }
+      Proxy.Type type;
+      try {
+        type = Proxy.Type.valueOf(
+            Configuration.getString(PROXY_TYPE, "HTTP").get().trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid value for '" + PROXY_TYPE + "'", e);
+      }
+      if (type == Proxy.Type.DIRECT) {
+        throw new IOException("Invalid value for '" + PROXY_TYPE + "'");
+      }
+      int port;
+      try {
+        port = Integer.parseInt(Configuration.getString(PROXY_PORT, "").get().trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid value for '" + PROXY_PORT + "'", e);
+      }
+      if (port < 1 || port > 65535) {
+        throw new IOException("Invalid value for '" + PROXY_PORT + "'");
+      }
+      return new Proxy(type, InetSocketAddress.createUnresolved(hostname, port));
+    }
+
+    /**
+     * Creates the uploader with the transport and credentials of the indexing service: the given
+     * transport, or else the transport the SDK creates by default, through the configured proxy.
+     *
+     * @param requestInitializer sets up each request for the given transport, may be
+     *     {@code null}
+     */
+    ResumableContentUploader createContentUploader(
+        IndexingService indexingService,
+        HttpTransport transport,
+        HttpRequestInitializer requestInitializer,
+        int chunkSize,
+        int threads)
+        throws IOException, GeneralSecurityException {
+      GoogleProxy proxy = GoogleProxy.fromConfiguration();
+      if (transport == null) {
+        transport = proxy.getHttpTransport();
+      }
+      HttpRequestInitializer proxyInitializer = proxy.getHttpRequestInitializer();
+      GoogleCredential credential =
+          getCredentialFactory()
+              .getCredential(Collections.singleton(CloudSearchScopes.CLOUD_SEARCH));
+      CloudSearch cloudSearch =
+          new CloudSearch.Builder(
+                  transport,
+                  JacksonFactory.getDefaultInstance(),
+                  ResumableContentUploader.withRetries(
+                      request -> {
+                        if (requestInitializer != null) {
+                          requestInitializer.initialize(request);
+                        }
+                        proxyInitializer.initialize(request);
+                        credential.initialize(request);
+                      },
+                      ExponentialBackOff::new))
+              .setApplicationName(this.getClass().getName())
+              .setRootUrl(Configuration.getString(ROOT_URL, CloudSearch.DEFAULT_ROOT_URL).get())
+              .build();
+      return new ResumableContentUploader(indexingService, cloudSearch, chunkSize, threads);
+    }
   }
 }
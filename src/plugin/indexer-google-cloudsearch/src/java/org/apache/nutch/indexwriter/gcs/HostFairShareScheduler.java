@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules uploads with one queue per host, served in deficit round-robin order, so that a
+ * single large site cannot take all of the upload capacity.
+ *
+ * <p>Each round, a host with queued uploads earns a quantum of bytes times its weight, and may
+ * start uploads until their cost exceeds its accumulated deficit. A single dispatcher thread
+ * starts the uploads one at a time, while fewer than the given number of started uploads have
+ * not completed. That limit is the concurrency of the indexing service, so the scheduler only
+ * changes the order of uploads, not the overall concurrency; without it, asynchronous uploads
+ * would be started as fast as they are submitted, and the queues would never fill up enough for
+ * the order to matter. Submitting blocks while the queues hold the maximum number of documents
+ * or bytes.
+ */
+class HostFairShareScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final int maxInFlight;
+  private final int maxQueuedDocuments;
+  private final long maxQueuedBytes;
+  private final long quantum;
+  private final Map<String, Integer> hostWeights;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition notBusy = lock.newCondition();
+  private final Condition allDone = lock.newCondition();
+  private final Map<String, HostQueue> queues = new HashMap<>();
+  private final Deque<HostQueue> activeQueues = new ArrayDeque<>();
+  private int queuedDocuments;
+  private long queuedBytes;
+  private int inFlight;
+  private boolean closed;
+  private Thread dispatcher;
+
+  /**
+   * @param maxInFlight the maximum number of started uploads that have not completed
+   */
+  HostFairShareScheduler(
+      int maxInFlight,
+      int maxQueuedDocuments,
+      long maxQueuedBytes,
+      long quantum,
+      Map<String, Integer> hostWeights) {
+    this.maxInFlight = maxInFlight;
+    this.maxQueuedDocuments = maxQueuedDocuments;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.quantum = quantum;
+    this.hostWeights = hostWeights;
+  }
+
+  /** Starts the dispatcher thread. */
+  void start() {
+    dispatcher = new Thread(this::dispatch, "gcs-fair-share-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Queues an upload for a host, blocking while the queues are full.
+   *
+   * @param host the host of the document URL
+   * @param cost the number of bytes the upload sends
+   * @param upload starts the upload and returns its future
+   */
+  void submit(String host, long cost, Supplier<ListenableFuture<?>> upload)
+      throws InterruptedException {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Scheduler is closed");
+      }
+      while (queuedDocuments > 0
+          && (queuedDocuments >= maxQueuedDocuments || queuedBytes + cost > maxQueuedBytes)) {
+        notFull.await();
+      }
+      HostQueue queue = queues.computeIfAbsent(host, HostQueue::new);
+      if (queue.uploads.isEmpty()) {
+        activeQueues.addLast(queue);
+      }
+      queue.uploads.addLast(new Upload(cost, upload));
+      queuedDocuments++;
+      queuedBytes += cost;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Starts all queued uploads and waits until every upload has finished. */
+  void close() throws InterruptedException {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (dispatcher != null) {
+      dispatcher.join();
+    }
+    lock.lock();
+    try {
+      while (inFlight > 0) {
+        allDone.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void dispatch() {
+    try {
+      while (true) {
+        Upload upload;
+        lock.lock();
+        try {
+          while (activeQueues.isEmpty() && !closed) {
+            notEmpty.await();
+          }
+          if (activeQueues.isEmpty()) {
+            return;
+          }
+          while (inFlight >= maxInFlight) {
+            notBusy.await();
+          }
+          upload = next();
+          queuedDocuments--;
+          queuedBytes -= upload.cost;
+          inFlight++;
+          notFull.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        start(upload);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Fair-share dispatcher interrupted, queued uploads are dropped");
+    }
+  }
+
+  private void start(Upload upload) {
+    ListenableFuture<?> future;
+    try {
+      future = upload.start.get();
+    } catch (RuntimeException e) {
+      finished();
+      LOG.warn("Exception caught while starting an upload: ", e);
+      return;
+    }
+    if (future == null) {
+      finished();
+    } else {
+      future.addListener(this::finished, MoreExecutors.directExecutor());
+    }
+  }
+
+  private void finished() {
+    lock.lock();
+    try {
+      inFlight--;
+      notBusy.signal();
+      if (inFlight == 0) {
+        allDone.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Takes the next upload in deficit round-robin order. Must be called with the lock held. */
+  private Upload next() {
+    while (true) {
+      HostQueue queue = activeQueues.peekFirst();
+      if (!queue.visited) {
+        queue.deficit += quantum * hostWeights.getOrDefault(queue.host, 1);
+        queue.visited = true;
+      }
+      Upload head = queue.uploads.peekFirst();
+      if (head.cost <= queue.deficit) {
+        queue.uploads.pollFirst();
+        queue.deficit -= head.cost;
+        if (queue.uploads.isEmpty()) {
+          queue.deficit = 0;
+          queue.visited = false;
+          activeQueues.pollFirst();
+          queues.remove(queue.host);
+        }
+        return head;
+      }
+      queue.visited = false;
+      activeQueues.pollFirst();
+      activeQueues.addLast(queue);
+    }
+  }
+
+  private static class HostQueue {
+    final String host;
+    final Deque<Upload> uploads = new ArrayDeque<>();
+    long deficit;
+    boolean visited;
+
+    HostQueue(String host) {
+      this.host = host;
+    }
+  }
+
+  private static class Upload {
+    final long cost;
+    final Supplier<ListenableFuture<?>> start;
+
+    Upload(long cost, Supplier<ListenableFuture<?>> start) {
+      this.cost = cost;
+      this.start = start;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_CONNECT_TIMEOUT;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_KEEP_ALIVE;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_POOL_TIMEOUT;
+import static org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_SOCKET_TIMEOUT;
+
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.nutch.indexer.IndexWriterParams;
+
+/**
+ * Creates the HTTP transport used by the {@code IndexingService}, as selected by the index writer
+ * parameters.
+ *
+ * <ul>
+ *   <li>{@code DEFAULT}: the SDK's default transport, including its proxy configuration.
+ *   <li>{@code APACHE}: an Apache HttpClient with a shared pool of keep-alive connections, so that
+ *       concurrent asynchronous requests reuse connections instead of opening a new connection,
+ *       and doing a new TLS handshake, for each request. It connects through the HTTP proxy
+ *       configured for the SDK.
+ * </ul>
+ *
+ * <p>The Google HTTP client replaces the request configuration of the Apache client on every
+ * request with the connect and read timeouts of its {@code HttpRequest}. So the connect and
+ * socket timeouts are set by the {@link #createRequestInitializer() request initializer}, which
+ * applies to the clients the writer builds itself; the SDK's {@code IndexingService} sets up its
+ * requests with its own initializers. The pool timeout, which the Google HTTP client does not
+ * know about, is added to each request by the Apache client.
+ */
+class HttpTransportFactory {
+  static final int MAX_CONNECTIONS_DEFAULT = 20;
+  static final int CONNECT_TIMEOUT_DEFAULT = 20000;
+  static final int SOCKET_TIMEOUT_DEFAULT = 60000;
+  static final int POOL_TIMEOUT_DEFAULT = 60000;
+  static final long KEEP_ALIVE_DEFAULT = 60000;
+
+  enum TransportType {
+    DEFAULT,
+    APACHE
+  }
+
+  private final TransportType transportType;
+  private final int maxConnections;
+  private final int connectTimeoutMillis;
+  private final int socketTimeoutMillis;
+  private final int poolTimeoutMillis;
+  private final long keepAliveMillis;
+
+  HttpTransportFactory(
+      TransportType transportType,
+      int maxConnections,
+      int connectTimeoutMillis,
+      int socketTimeoutMillis,
+      int poolTimeoutMillis,
+      long keepAliveMillis) {
+    this.transportType = transportType;
+    this.maxConnections = maxConnections;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.socketTimeoutMillis = socketTimeoutMillis;
+    this.poolTimeoutMillis = poolTimeoutMillis;
+    this.keepAliveMillis = keepAliveMillis;
+  }
+
+  static HttpTransportFactory fromParameters(IndexWriterParams parameters) throws IOException {
+    String transportValue = ConfigParams.getString(parameters, CONFIG_KEY_TRANSPORT, "DEFAULT");
+    TransportType transportType;
+    try {
+      transportType = TransportType.valueOf(transportValue.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown value for '" + CONFIG_KEY_TRANSPORT + "'", e);
+    }
+    int maxConnections =
+        ConfigParams.getInt(
+            parameters, CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS, MAX_CONNECTIONS_DEFAULT);
+    if (maxConnections < 1) {
+      throw new IOException("Invalid value for '" + CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS + "'");
+    }
+    return new HttpTransportFactory(
+        transportType,
+        maxConnections,
+        ConfigParams.getInt(
+            parameters, CONFIG_KEY_TRANSPORT_CONNECT_TIMEOUT, CONNECT_TIMEOUT_DEFAULT),
+        ConfigParams.getInt(
+            parameters, CONFIG_KEY_TRANSPORT_SOCKET_TIMEOUT, SOCKET_TIMEOUT_DEFAULT),
+        ConfigParams.getInt(parameters, CONFIG_KEY_TRANSPORT_POOL_TIMEOUT, POOL_TIMEOUT_DEFAULT),
+        ConfigParams.getLong(parameters, CONFIG_KEY_TRANSPORT_KEEP_ALIVE, KEEP_ALIVE_DEFAULT));
+  }
+
+  TransportType getTransportType() {
+    return transportType;
+  }
+
+  /**
+   * Creates a new transport, or returns {@code null} if the SDK should create its default
+   * transport. The transport owns its connection pool and is meant to be shared by all clients
+   * of the index writer, which shuts it down when it is closed.
+   *
+   * @param proxy the proxy configured for the SDK, or {@link Proxy#NO_PROXY}
+   */
+  HttpTransport createTransport(Proxy proxy) throws IOException {
+    switch (transportType) {
+      case APACHE:
+        return createApacheTransport(proxy);
+      case DEFAULT:
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the initializer that sets the connect and socket timeouts of the requests sent
+   * through the {@link #createTransport transport}, or {@code null} for the default transport.
+   */
+  HttpRequestInitializer createRequestInitializer() {
+    if (transportType != TransportType.APACHE) {
+      return null;
+    }
+    return request ->
+        request.setConnectTimeout(connectTimeoutMillis).setReadTimeout(socketTimeoutMillis);
+  }
+
+  private HttpTransport createApacheTransport(Proxy proxy) throws IOException {
+    if (proxy.type() == Proxy.Type.SOCKS) {
+      throw new IOException("The " + TransportType.APACHE + " transport does not support a "
+          + proxy.type() + " proxy");
+    }
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(keepAliveMillis, TimeUnit.MILLISECONDS);
+    // All requests go to the same API host, so a single route may use the whole pool.
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    // Runs before a connection is leased from the pool, with the configuration of the request
+    HttpRequestInterceptor poolTimeout =
+        (request, context) -> {
+          HttpClientContext clientContext = HttpClientContext.adapt(context);
+          clientContext.setRequestConfig(
+              RequestConfig.copy(clientContext.getRequestConfig())
+                  .setConnectionRequestTimeout(poolTimeoutMillis)
+                  .build());
+        };
+    // Redirects and retries are handled by the Google HTTP client library.
+    HttpClientBuilder builder =
+        HttpClientBuilder.create()
+            .useSystemProperties()
+            .setConnectionManager(connectionManager)
+            .addInterceptorLast(poolTimeout)
+            .setKeepAliveStrategy((response, context) -> keepAliveMillis)
+            .disableRedirectHandling()
+            .disableAutomaticRetries();
+    if (proxy.type() == Proxy.Type.HTTP) {
+      // Takes precedence over the proxy of the system properties
+      InetSocketAddress address = (InetSocketAddress) proxy.address();
+      builder.setProxy(new HttpHost(address.getHostString(), address.getPort()));
+    }
+    HttpClient httpClient = builder.build();
+    return new ApacheHttpTransport(httpClient);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemContent;
+import com.google.api.services.cloudsearch.v1.model.ItemMetadata;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fingerprints of the content and the metadata of an item.
+ *
+ * <p>The fingerprints are stored with the item, in {@code content.hash} and
+ * {@code metadata.hash}, so that the next crawl can tell which part of a document changed.
+ */
+final class ItemFingerprints {
+  private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+  private ItemFingerprints() {}
+
+  /** Returns the fingerprint of the content bytes and the format they are indexed in. */
+  static String contentHash(AbstractInputStreamContent content, ContentFormat contentFormat)
+      throws IOException {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putString(contentFormat.name(), StandardCharsets.UTF_8);
+    try (InputStream in = content.getInputStream()) {
+      ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the fingerprint of text content and the format it is indexed in, which is the same
+   * as the fingerprint of its UTF-8 bytes.
+   */
+  static String contentHash(String text, ContentFormat contentFormat) {
+    return HASH_FUNCTION.newHasher()
+        .putString(contentFormat.name(), StandardCharsets.UTF_8)
+        .putString(text, StandardCharsets.UTF_8)
+        .hash()
+        .toString();
+  }
+
+  /**
+   * Returns the fingerprint of everything but the content of the item: the metadata, the
+   * structured data and the ACL. The version and the hashes themselves are left out.
+   */
+  static String metadataHash(Item item) throws IOException {
+    Item copy = item.clone().setContent(null).setVersion(null);
+    if (copy.getMetadata() != null) {
+      copy.getMetadata().setHash(null);
+    }
+    String json = JacksonFactory.getDefaultInstance().toString(copy);
+    return HASH_FUNCTION.hashString(json, StandardCharsets.UTF_8).toString();
+  }
+
+  /** Returns the content fingerprint stored with a previously indexed item, if any. */
+  static String storedContentHash(Item item) {
+    ItemContent content = item.getContent();
+    return (content == null) ? null : content.getHash();
+  }
+
+  /** Returns the metadata fingerprint stored with a previously indexed item, if any. */
+  static String storedMetadataHash(Item item) {
+    ItemMetadata metadata = item.getMetadata();
+    return (metadata == null) ? null : metadata.getHash();
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes built items and deletes to gzip compressed, newline delimited JSON segments instead of
+ * sending them to the indexing API. The segments are uploaded later by {@link SpoolReplayTool}.
+ *
+ * <p>Each line is a {@link SpoolRecord}. A new segment is started once the current one reaches
+ * the configured number of records or uncompressed bytes. A task attempt writes its segments to
+ * a staging directory, {@code _temporary/<task>/<attempt>}, and publishes them when it is
+ * closed, by renaming the staging directory to {@code <time>-<task>}. So a reader never sees the
+ * segments of a failed attempt, or a partially written segment. Only the attempt that claims the
+ * task, by creating {@code _temporary/<task>.claim}, publishes its segments; it also removes the
+ * staging directories of the other attempts of the task. The claim file is created only if it
+ * does not exist, which is atomic on HDFS, so attempts that are closed at the same time cannot
+ * both publish. The published directories sort in the order they were published, which
+ * is the order that {@link SpoolReplayTool} replays them in.
+ */
+class ItemSpoolWriter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final String SEGMENT_SUFFIX = ".ndjson.gz";
+  static final String IN_PROGRESS_SUFFIX = ".inprogress";
+  static final String STAGING_DIRECTORY = "_temporary";
+  static final String CLAIM_SUFFIX = ".claim";
+  static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+  private final FileSystem fs;
+  private final Path directory;
+  private final String taskId;
+  private final Path taskStagingDirectory;
+  private final Path claim;
+  private final Path stagingDirectory;
+  private final long maxRecordsPerSegment;
+  private final long maxBytesPerSegment;
+
+  private int segmentNumber;
+  private Path currentSegment;
+  private OutputStream currentOutput;
+  private long currentRecords;
+  private long currentBytes;
+
+  /**
+   * @param directory the spool directory, shared by all tasks
+   * @param taskId the ID of the task, the same for all of its attempts
+   * @param attemptId the ID of this attempt of the task
+   */
+  ItemSpoolWriter(
+      FileSystem fs,
+      Path directory,
+      String taskId,
+      String attemptId,
+      long maxRecordsPerSegment,
+      long maxBytesPerSegment) {
+    this.fs = fs;
+    this.directory = directory;
+    this.taskId = taskId;
+    this.taskStagingDirectory = new Path(new Path(directory, STAGING_DIRECTORY), taskId);
+    this.claim = new Path(new Path(directory, STAGING_DIRECTORY), taskId + CLAIM_SUFFIX);
+    this.stagingDirectory = new Path(taskStagingDirectory, attemptId);
+    this.maxRecordsPerSegment = maxRecordsPerSegment;
+    this.maxBytesPerSegment = maxBytesPerSegment;
+  }
+
+  synchronized void writeIndex(
+      Item item, AbstractInputStreamContent content, ContentFormat contentFormat)
+      throws IOException {
+    byte[] contentBytes;
+    try (InputStream in = content.getInputStream()) {
+      contentBytes = ByteStreams.toByteArray(in);
+    }
+    append(
+        new SpoolRecord()
+            .setOp(SpoolRecord.OP_INDEX)
+            .setId(item.getName())
+            .setItem(item)
+            .setContentFormat(contentFormat.name())
+            .setMimeType(content.getType())
+            .setContent(Base64.getEncoder().encodeToString(contentBytes)));
+  }
+
+  synchronized void writeDelete(String id, byte[] version) throws IOException {
+    append(
+        new SpoolRecord()
+            .setOp(SpoolRecord.OP_DELETE)
+            .setId(id)
+            .setVersion(Base64.getEncoder().encodeToString(version)));
+  }
+
+  /** Finishes the current segment and publishes the segments of this attempt. */
+  @Override
+  public synchronized void close() throws IOException {
+    finishSegment();
+    if (segmentNumber == 0) {
+      return;
+    }
+    try {
+      fs.create(claim, false).close();
+    } catch (FileAlreadyExistsException e) {
+      LOG.info("Discarding spool segments of {}, task already claimed by another attempt: {}",
+          stagingDirectory, claim);
+      fs.delete(stagingDirectory, true);
+      return;
+    }
+    Path target =
+        new Path(directory, String.format("%013d-%s", System.currentTimeMillis(), taskId));
+    if (!fs.rename(stagingDirectory, target)) {
+      throw new IOException("Failed to publish spool segments " + stagingDirectory + " to "
+          + target);
+    }
+    // Failed or speculative attempts of the task, whose segments must not be replayed
+    fs.delete(taskStagingDirectory, true);
+    LOG.info("Published {} spool segments to {}", segmentNumber, target);
+  }
+
+  @VisibleForTesting
+  synchronized int getSegmentCount() {
+    return segmentNumber;
+  }
+
+  private void append(SpoolRecord record) throws IOException {
+    if (currentOutput == null) {
+      startSegment();
+    }
+    byte[] line = JSON_FACTORY.toString(record).getBytes(StandardCharsets.UTF_8);
+    currentOutput.write(line);
+    currentOutput.write('\n');
+    currentRecords++;
+    currentBytes += line.length + 1;
+    if (currentRecords >= maxRecordsPerSegment || currentBytes >= maxBytesPerSegment) {
+      finishSegment();
+    }
+  }
+
+  private void startSegment() throws IOException {
+    currentSegment =
+        new Path(
+            stagingDirectory,
+            String.format("items-%05d%s%s", segmentNumber++, SEGMENT_SUFFIX, IN_PROGRESS_SUFFIX));
+    currentOutput =
+        new BufferedOutputStream(new GZIPOutputStream(fs.create(currentSegment, false)));
+    currentRecords = 0;
+    currentBytes = 0;
+  }
+
+  private void finishSegment() throws IOException {
+    if (currentOutput == null) {
+      return;
+    }
+    currentOutput.close();
+    currentOutput = null;
+    String name = currentSegment.getName();
+    Path finished =
+        new Path(stagingDirectory, name.substring(0, name.length() - IN_PROGRESS_SUFFIX.length()));
+    if (!fs.rename(currentSegment, finished)) {
+      throw new IOException("Failed to rename spool segment " + currentSegment + " to " + finished);
+    }
+    LOG.info("Spooled {} records ({} bytes) to {}", currentRecords, currentBytes, finished);
+  }
+
+  /**
+   * Lists the published segments in a spool directory, in the order they were published and
+   * then written.
+   */
+  static List<Path> listSegments(FileSystem fs, Path directory) throws IOException {
+    FileStatus[] statuses = fs.globStatus(new Path(directory, "[0-9]*/*" + SEGMENT_SUFFIX));
+    if (statuses == null) {
+      return Collections.emptyList();
+    }
+    return Arrays.stream(statuses)
+        .map(FileStatus::getPath)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  /** Opens a completed segment for reading, one {@link SpoolRecord} per line. */
+  static BufferedReader openSegment(FileSystem fs, Path segment) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(new GZIPInputStream(fs.open(segment)), StandardCharsets.UTF_8));
+  }
+
+  static SpoolRecord parseRecord(String line) throws IOException {
+    return JSON_FACTORY.fromString(line, SpoolRecord.class);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a source stream ahead of its consumer on another thread, in blocks, so that reading (and
+ * decoding) the next part of a document overlaps with sending the current one.
+ *
+ * <p>At most {@code blocksAhead} blocks are buffered. The source stream is closed by the reading
+ * thread once it is exhausted, fails, or this stream is closed. Any failure of the source,
+ * including unchecked exceptions and errors, is thrown by the next read after the blocks read
+ * before it.
+ */
+final class ReadAheadInputStream extends InputStream {
+  private static final byte[] END_OF_STREAM = new byte[0];
+  private static final long ENQUEUE_TIMEOUT_MILLIS = 100;
+
+  private final BlockingQueue<Object> blocks;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private byte[] current = new byte[0];
+  private int position;
+  private boolean endOfStream;
+
+  ReadAheadInputStream(InputStream source, int blockSize, int blocksAhead, Executor executor) {
+    this.blocks = new ArrayBlockingQueue<>(blocksAhead);
+    executor.execute(() -> readAhead(source, blockSize));
+  }
+
+  private void readAhead(InputStream source, int blockSize) {
+    Object last = END_OF_STREAM;
+    try (InputStream in = source) {
+      int count;
+      do {
+        if (closed.get()) {
+          return;
+        }
+        byte[] block = new byte[blockSize];
+        count = ByteStreams.read(in, block, 0, blockSize);
+        if (count > 0 && !enqueue((count == blockSize) ? block : Arrays.copyOf(block, count))) {
+          return;
+        }
+      } while (count > 0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (Throwable t) {
+      // Also unchecked, e.g. from decoding, which would otherwise leave the reader waiting
+      last = t;
+    }
+    try {
+      enqueue(last);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Waits for space in the queue, unless this stream is closed and nobody reads anymore. */
+  private boolean enqueue(Object element) throws InterruptedException {
+    while (!blocks.offer(element, ENQUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+      if (closed.get()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean nextBlock() throws IOException {
+    if (endOfStream) {
+      return false;
+    }
+    if (closed.get()) {
+      throw new IOException("Stream closed");
+    }
+    Object next;
+    try {
+      next = blocks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading ahead", e);
+    }
+    if (next instanceof Throwable) {
+      throw new IOException("Failed to read ahead", (Throwable) next);
+    }
+    current = (byte[]) next;
+    position = 0;
+    endOfStream = (current == END_OF_STREAM);
+    return !endOfStream;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (position == current.length) {
+      if (!nextBlock()) {
+        return -1;
+      }
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    while (position == current.length) {
+      if (!nextBlock()) {
+        return -1;
+      }
+    }
+    int count = Math.min(length, current.length - position);
+    System.arraycopy(current, position, buffer, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      blocks.clear();
+    }
+  }
+}
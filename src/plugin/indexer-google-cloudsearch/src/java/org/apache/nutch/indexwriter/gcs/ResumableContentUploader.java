@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.util.BackOff;
+import com.google.api.services.cloudsearch.v1.CloudSearch;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemContent;
+import com.google.api.services.cloudsearch.v1.model.Media;
+import com.google.api.services.cloudsearch.v1.model.UploadItemRef;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.RequestMode;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads large content with the resumable media upload protocol, in fixed-size chunks, and then
+ * indexes the item with a reference to the uploaded content.
+ *
+ * <p>Only the current chunk is buffered. When a chunk fails with an I/O error or a server error,
+ * the upload is resumed from the last byte the server has committed, instead of starting over.
+ * The next chunk is read, and decoded, on another thread while the current chunk is sent.
+ *
+ * <p>Uploads run on their own threads, so that a long upload does not hold up the caller. When
+ * all threads are busy the caller runs the upload itself, which limits the documents in memory.
+ */
+class ResumableContentUploader implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final int READ_AHEAD_BLOCK_SIZE = MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+
+  private final IndexingService indexingService;
+  private final CloudSearch cloudSearch;
+  private final int chunkSize;
+  private final ListeningExecutorService uploadExecutor;
+  private final ExecutorService readAheadExecutor;
+
+  ResumableContentUploader(
+      IndexingService indexingService, CloudSearch cloudSearch, int chunkSize, int threads) {
+    this.indexingService = indexingService;
+    this.cloudSearch = cloudSearch;
+    this.chunkSize = chunkSize;
+    this.uploadExecutor =
+        MoreExecutors.listeningDecorator(
+            new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("gcs-upload-%d")
+                    .setDaemon(true)
+                    .build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+    this.readAheadExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("gcs-read-ahead-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Returns an initializer that retries failed requests with back-off, after the given
+   * initializer has set up the credentials. Retries of a chunk resume the upload.
+   */
+  static HttpRequestInitializer withRetries(
+      HttpRequestInitializer delegate, Supplier<BackOff> backOffs) {
+    return request -> {
+      delegate.initialize(request);
+      HttpUnsuccessfulResponseHandler credentialHandler = request.getUnsuccessfulResponseHandler();
+      HttpUnsuccessfulResponseHandler backOffHandler =
+          new HttpBackOffUnsuccessfulResponseHandler(backOffs.get());
+      request.setUnsuccessfulResponseHandler(
+          (retry, response, supportsRetry) ->
+              (credentialHandler != null
+                      && credentialHandler.handleResponse(retry, response, supportsRetry))
+                  || backOffHandler.handleResponse(retry, response, supportsRetry));
+      request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(backOffs.get()));
+    };
+  }
+
+  /**
+   * Uploads the content and then indexes the item.
+   *
+   * @param content the content, with a known length
+   * @return the future of the index request, which fails if the upload fails
+   */
+  ListenableFuture<?> indexItemAndContent(
+      Item item, AbstractInputStreamContent content, String contentHash,
+      ContentFormat contentFormat) {
+    ListenableFuture<UploadItemRef> uploaded =
+        uploadExecutor.submit(() -> upload(item.getName(), content));
+    return Futures.transformAsync(
+        uploaded,
+        uploadRef -> {
+          item.setContent(
+              new ItemContent()
+                  .setContentDataRef(uploadRef)
+                  .setContentFormat(contentFormat.name())
+                  .setHash(contentHash));
+          return indexingService.indexItem(item, RequestMode.ASYNCHRONOUS);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private UploadItemRef upload(String id, AbstractInputStreamContent content) throws IOException {
+    UploadItemRef uploadRef = indexingService.startUpload(id);
+    String resourceName = uploadRef.getName();
+    int blocksAhead = Math.max(chunkSize / READ_AHEAD_BLOCK_SIZE, 1);
+    try (ReadAheadInputStream in =
+        new ReadAheadInputStream(
+            content.getInputStream(), READ_AHEAD_BLOCK_SIZE, blocksAhead, readAheadExecutor)) {
+      InputStreamContent mediaContent =
+          new InputStreamContent(content.getType(), in).setLength(content.getLength());
+      CloudSearch.Media.Upload request =
+          cloudSearch.media().upload(
+              resourceName, new Media().setResourceName(resourceName), mediaContent);
+      request.setDisableGZipContent(true);
+      request.getMediaHttpUploader()
+          .setDirectUploadEnabled(false)
+          .setDisableGZipContent(true)
+          .setChunkSize(chunkSize);
+      request.execute();
+    }
+    LOG.debug("Uploaded {} bytes of content for {}", content.getLength(), id);
+    return new UploadItemRef().setName(resourceName);
+  }
+
+  /** Waits for the running uploads to finish. */
+  @Override
+  public void close() {
+    uploadExecutor.shutdown();
+    try {
+      while (!uploadExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.info("Waiting for content uploads to finish");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while waiting for content uploads");
+    }
+    readAheadExecutor.shutdownNow();
+  }
+}
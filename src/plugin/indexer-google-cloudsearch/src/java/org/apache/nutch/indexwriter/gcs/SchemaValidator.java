@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.services.cloudsearch.v1.model.EnumValuePair;
+import com.google.api.services.cloudsearch.v1.model.IntegerPropertyOptions;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemStructuredData;
+import com.google.api.services.cloudsearch.v1.model.NamedProperty;
+import com.google.api.services.cloudsearch.v1.model.ObjectDefinition;
+import com.google.api.services.cloudsearch.v1.model.PropertyDefinition;
+import com.google.api.services.cloudsearch.v1.model.Schema;
+import com.google.api.services.cloudsearch.v1.model.StructuredDataObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks the structured data of built items against the data source schema, so that items the
+ * API would reject are caught before their content is uploaded.
+ *
+ * <p>The checks cover unknown object types and properties, values of the wrong type, more than one
+ * value for a non-repeatable property, enum values that are not defined, and integers outside of
+ * the defined range. In repair mode, the offending values or properties are removed from the item
+ * instead, and an unknown object type is removed together with the structured data.
+ */
+class SchemaValidator {
+  enum Mode {
+    OFF,
+    REJECT,
+    REPAIR
+  }
+
+  private enum Kind {
+    TEXT,
+    HTML,
+    INTEGER,
+    DOUBLE,
+    ENUM,
+    DATE,
+    TIMESTAMP,
+    BOOLEAN,
+    OBJECT
+  }
+
+  private final Map<String, ObjectDefinition> objectDefinitions = new HashMap<>();
+
+  SchemaValidator(Schema schema) {
+    if (schema != null && schema.getObjectDefinitions() != null) {
+      for (ObjectDefinition definition : schema.getObjectDefinitions()) {
+        objectDefinitions.put(definition.getName(), definition);
+      }
+    }
+  }
+
+  /**
+   * Validates the structured data of an item.
+   *
+   * @param item the item to validate
+   * @param repair whether to remove invalid values and properties from the item
+   * @return a description of each problem found, empty if the item is valid
+   */
+  List<String> validate(Item item, boolean repair) {
+    ItemStructuredData structuredData = item.getStructuredData();
+    boolean hasStructuredData =
+        structuredData != null
+            && structuredData.getObject() != null
+            && !isEmpty(structuredData.getObject());
+    String objectType = (item.getMetadata() == null) ? null : item.getMetadata().getObjectType();
+    ObjectDefinition definition = (objectType == null) ? null : objectDefinitions.get(objectType);
+    if (definition == null) {
+      // The API rejects an object type that is not in the schema, even without structured data
+      if (objectType == null && !hasStructuredData) {
+        return Collections.emptyList();
+      }
+      if (repair) {
+        if (objectType != null) {
+          item.getMetadata().setObjectType(null);
+        }
+        item.setStructuredData(null);
+      }
+      return Collections.singletonList("unknown object type '" + objectType + "'");
+    }
+    if (!hasStructuredData) {
+      return Collections.emptyList();
+    }
+    List<String> problems = new ArrayList<>();
+    validateObject(
+        structuredData.getObject(), definition.getPropertyDefinitions(), "", repair, problems);
+    return problems;
+  }
+
+  private void validateObject(
+      StructuredDataObject object,
+      List<PropertyDefinition> propertyDefinitions,
+      String path,
+      boolean repair,
+      List<String> problems) {
+    if (object.getProperties() == null) {
+      return;
+    }
+    Map<String, PropertyDefinition> definitions = new HashMap<>();
+    if (propertyDefinitions != null) {
+      for (PropertyDefinition definition : propertyDefinitions) {
+        definitions.put(definition.getName(), definition);
+      }
+    }
+    Iterator<NamedProperty> properties = object.getProperties().iterator();
+    while (properties.hasNext()) {
+      NamedProperty property = properties.next();
+      String name = path + property.getName();
+      PropertyDefinition definition = definitions.get(property.getName());
+      if (definition == null) {
+        problems.add("unknown property '" + name + "'");
+        if (repair) {
+          properties.remove();
+        }
+        continue;
+      }
+      Kind expected = expectedKind(definition);
+      Kind actual = actualKind(property);
+      if (expected == null || actual == null) {
+        continue;
+      }
+      if (expected != actual) {
+        problems.add("property '" + name + "' expects " + expected + " but has " + actual);
+        if (repair) {
+          properties.remove();
+        }
+        continue;
+      }
+      List<Object> values = new ArrayList<>(getValues(property, actual));
+      boolean changed = false;
+      if (actual == Kind.ENUM) {
+        Set<String> allowed = new HashSet<>();
+        if (definition.getEnumPropertyOptions().getPossibleValues() != null) {
+          for (EnumValuePair pair : definition.getEnumPropertyOptions().getPossibleValues()) {
+            allowed.add(pair.getStringValue());
+          }
+        }
+        if (values.removeIf(value -> !allowed.contains(value))) {
+          problems.add("property '" + name + "' has undefined enum values");
+          changed = true;
+        }
+      } else if (actual == Kind.INTEGER) {
+        IntegerPropertyOptions options = definition.getIntegerPropertyOptions();
+        long min = (options.getMinimumValue() == null) ? Long.MIN_VALUE : options.getMinimumValue();
+        long max = (options.getMaximumValue() == null) ? Long.MAX_VALUE : options.getMaximumValue();
+        if (values.removeIf(value -> (Long) value < min || (Long) value > max)) {
+          problems.add(
+              "property '" + name + "' has integers outside of [" + min + ", " + max + "]");
+          changed = true;
+        }
+      } else if (actual == Kind.OBJECT) {
+        for (Object value : values) {
+          validateObject(
+              (StructuredDataObject) value,
+              definition.getObjectPropertyOptions().getSubobjectProperties(),
+              name + ".",
+              repair,
+              problems);
+        }
+      }
+      if (!Boolean.TRUE.equals(definition.getIsRepeatable()) && values.size() > 1) {
+        problems.add("property '" + name + "' is not repeatable but has " + values.size()
+            + " values");
+        values = values.subList(0, 1);
+        changed = true;
+      }
+      if (repair && changed) {
+        if (values.isEmpty()) {
+          properties.remove();
+        } else {
+          setValues(property, actual, values);
+        }
+      }
+    }
+  }
+
+  private static boolean isEmpty(StructuredDataObject object) {
+    return object.getProperties() == null || object.getProperties().isEmpty();
+  }
+
+  private static Kind expectedKind(PropertyDefinition definition) {
+    if (definition.getTextPropertyOptions() != null) {
+      return Kind.TEXT;
+    } else if (definition.getHtmlPropertyOptions() != null) {
+      return Kind.HTML;
+    } else if (definition.getIntegerPropertyOptions() != null) {
+      return Kind.INTEGER;
+    } else if (definition.getDoublePropertyOptions() != null) {
+      return Kind.DOUBLE;
+    } else if (definition.getEnumPropertyOptions() != null) {
+      return Kind.ENUM;
+    } else if (definition.getDatePropertyOptions() != null) {
+      return Kind.DATE;
+    } else if (definition.getTimestampPropertyOptions() != null) {
+      return Kind.TIMESTAMP;
+    } else if (definition.getBooleanPropertyOptions() != null) {
+      return Kind.BOOLEAN;
+    } else if (definition.getObjectPropertyOptions() != null) {
+      return Kind.OBJECT;
+    }
+    return null;
+  }
+
+  private static Kind actualKind(NamedProperty property) {
+    if (property.getTextValues() != null) {
+      return Kind.TEXT;
+    } else if (property.getHtmlValues() != null) {
+      return Kind.HTML;
+    } else if (property.getIntegerValues() != null) {
+      return Kind.INTEGER;
+    } else if (property.getDoubleValues() != null) {
+      return Kind.DOUBLE;
+    } else if (property.getEnumValues() != null) {
+      return Kind.ENUM;
+    } else if (property.getDateValues() != null) {
+      return Kind.DATE;
+    } else if (property.getTimestampValues() != null) {
+      return Kind.TIMESTAMP;
+    } else if (property.getBooleanValue() != null) {
+      return Kind.BOOLEAN;
+    } else if (property.getObjectValues() != null) {
+      return Kind.OBJECT;
+    }
+    return null;
+  }
+
+  private static List<?> getValues(NamedProperty property, Kind kind) {
+    List<?> values;
+    switch (kind) {
+      case TEXT:
+        values = property.getTextValues().getValues();
+        break;
+      case HTML:
+        values = property.getHtmlValues().getValues();
+        break;
+      case INTEGER:
+        values = property.getIntegerValues().getValues();
+        break;
+      case DOUBLE:
+        values = property.getDoubleValues().getValues();
+        break;
+      case ENUM:
+        values = property.getEnumValues().getValues();
+        break;
+      case DATE:
+        values = property.getDateValues().getValues();
+        break;
+      case TIMESTAMP:
+        values = property.getTimestampValues().getValues();
+        break;
+      case OBJECT:
+        values = property.getObjectValues().getValues();
+        break;
+      case BOOLEAN:
+      default:
+        values = Collections.singletonList(property.getBooleanValue());
+        break;
+    }
+    return (values == null) ? Collections.emptyList() : values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void setValues(NamedProperty property, Kind kind, List<Object> values) {
+    List<?> copy = new ArrayList<>(values);
+    switch (kind) {
+      case TEXT:
+        property.getTextValues().setValues((List<String>) copy);
+        break;
+      case HTML:
+        property.getHtmlValues().setValues((List<String>) copy);
+        break;
+      case INTEGER:
+        property.getIntegerValues().setValues((List<Long>) copy);
+        break;
+      case DOUBLE:
+        property.getDoubleValues().setValues((List<Double>) copy);
+        break;
+      case ENUM:
+        property.getEnumValues().setValues((List<String>) copy);
+        break;
+      case DATE:
+        property.getDateValues().setValues(
+            (List<com.google.api.services.cloudsearch.v1.model.Date>) copy);
+        break;
+      case TIMESTAMP:
+        property.getTimestampValues().setValues((List<String>) copy);
+        break;
+      case OBJECT:
+        property.getObjectValues().setValues((List<StructuredDataObject>) copy);
+        break;
+      case BOOLEAN:
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.util.DateTime;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.indexer.IndexWriter;
+import org.apache.nutch.indexer.IndexWriterParams;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes Nutch segments with {@link GoogleCloudSearchIndexWriter} directly, without running an
+ * indexing MapReduce job.
+ *
+ * <p>The {@code parse_text}, {@code parse_data} and, in RAW upload format, {@code content} map
+ * files of each segment are read from any Hadoop file system, one thread per segment partition.
+ * Each URL is looked up in the crawl db, and the documents are assembled with the fields the index
+ * writer needs: {@code id}, {@code url}, {@code type}, {@code title}, {@code lastModified}, {@code
+ * content} and {@code binaryContent}. Like {@code nutch index}, URLs missing from the crawl db or
+ * without a successful parse are skipped, and gone, redirected and duplicate URLs are deleted when
+ * {@code -deleteGone} is given. A document that the index writer fails to write or delete is
+ * logged and counted, and does not stop the other documents from being streamed. The tool exits
+ * with status 1 if any document failed.
+ *
+ * <p>Indexing filters are not run, so fields added by other indexing plugins are not available.
+ */
+public class SegmentIndexStreamer extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final int DEFAULT_THREADS = 4;
+  private static final String USAGE =
+      "Usage: SegmentIndexStreamer <crawldb> <segment> [<segment> ...]"
+          + " -param gcs.config.file=<gcs_config_file> [-param <name>=<value> ...]"
+          + " [-threads <n>] [-deleteGone]";
+
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    int result = ToolRunner.run(NutchConfiguration.create(), new SegmentIndexStreamer(), args);
+    System.exit(result);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println(USAGE);
+      return -1;
+    }
+    Path crawlDb = new Path(args[0]);
+    List<Path> segments = new ArrayList<>();
+    Map<String, String> params = new HashMap<>();
+    int threads = DEFAULT_THREADS;
+    boolean deleteGone = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-param") && i + 1 < args.length) {
+        String[] param = args[++i].split("=", 2);
+        if (param.length != 2) {
+          System.err.println("Invalid parameter: " + args[i]);
+          System.err.println(USAGE);
+          return -1;
+        }
+        params.put(param[0], param[1]);
+      } else if (args[i].equals("-threads")) {
+        if (i + 1 == args.length) {
+          System.err.println("Missing value for -threads");
+          System.err.println(USAGE);
+          return -1;
+        }
+        try {
+          threads = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException e) {
+          threads = 0;
+        }
+        if (threads < 1) {
+          System.err.println("Invalid value for -threads: " + args[i]);
+          System.err.println(USAGE);
+          return -1;
+        }
+      } else if (args[i].equals("-deleteGone")) {
+        deleteGone = true;
+      } else if (args[i].startsWith("-")) {
+        System.err.println("Unknown argument: " + args[i]);
+        System.err.println(USAGE);
+        return -1;
+      } else {
+        segments.add(new Path(args[i]));
+      }
+    }
+
+    IndexWriterParams parameters = new IndexWriterParams(params);
+    boolean addBinaryContent =
+        !GoogleCloudSearchIndexWriter.UploadFormat.TEXT.name().equalsIgnoreCase(
+            ConfigParams.getString(
+                parameters, GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT, "RAW"));
+    GoogleCloudSearchIndexWriter writer = new GoogleCloudSearchIndexWriter();
+    writer.setConf(getConf());
+    writer.open(parameters);
+    try {
+      stream(crawlDb, segments, writer, threads, deleteGone, addBinaryContent);
+    } finally {
+      writer.close();
+    }
+    return failed.get() > 0 ? 1 : 0;
+  }
+
+  /** Streams all partitions of the given segments to the index writer. */
+  @VisibleForTesting
+  void stream(
+      Path crawlDb,
+      List<Path> segments,
+      IndexWriter writer,
+      int threads,
+      boolean deleteGone,
+      boolean addBinaryContent)
+      throws IOException, InterruptedException {
+    Configuration conf = getConf();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (Path segment : segments) {
+        FileSystem fs = segment.getFileSystem(conf);
+        FileStatus[] partitions =
+            fs.listStatus(
+                new Path(segment, ParseText.DIR_NAME),
+                path -> path.getName().startsWith("part-"));
+        for (FileStatus partition : partitions) {
+          String partName = partition.getPath().getName();
+          results.add(
+              executor.submit(
+                  () -> {
+                    streamPartition(
+                        crawlDb, segment, partName, writer, deleteGone, addBinaryContent);
+                    return null;
+                  }));
+        }
+      }
+      for (Future<?> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          throw new IOException("Failed to stream segment partition", e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    LOG.info(
+        "Streamed segments: {} indexed, {} deleted, {} skipped, {} failed",
+        indexed.get(), deleted.get(), skipped.get(), failed.get());
+  }
+
+  private void streamPartition(
+      Path crawlDb,
+      Path segment,
+      String partName,
+      IndexWriter writer,
+      boolean deleteGone,
+      boolean addBinaryContent)
+      throws IOException {
+    Configuration conf = getConf();
+    // MapFile readers are not thread-safe, so each partition reader opens its own.
+    MapFile.Reader[] crawlDbReaders =
+        MapFileOutputFormat.getReaders(new Path(crawlDb, CrawlDb.CURRENT_NAME), conf);
+    MapFile.Reader[] contentReaders =
+        addBinaryContent
+            ? MapFileOutputFormat.getReaders(new Path(segment, Content.DIR_NAME), conf)
+            : new MapFile.Reader[0];
+    HashPartitioner<Text, CrawlDatum> partitioner = new HashPartitioner<>();
+    // parse_text and parse_data are written by the same task, so their partitions line up.
+    try (MapFile.Reader textReader =
+            new MapFile.Reader(new Path(new Path(segment, ParseText.DIR_NAME), partName), conf);
+        MapFile.Reader dataReader =
+            new MapFile.Reader(new Path(new Path(segment, ParseData.DIR_NAME), partName), conf)) {
+      Text url = new Text();
+      ParseText parseText = new ParseText();
+      ParseData parseData = new ParseData();
+      CrawlDatum dbDatum = new CrawlDatum();
+      Content content = new Content();
+      while (textReader.next(url, parseText)) {
+        if (dataReader.get(url, parseData) == null) {
+          skipped.incrementAndGet();
+          continue;
+        }
+        if (MapFileOutputFormat.getEntry(crawlDbReaders, partitioner, url, dbDatum) == null) {
+          skipped.incrementAndGet();
+          continue;
+        }
+        String key = url.toString();
+        if (isGone(dbDatum)) {
+          if (deleteGone) {
+            try {
+              writer.delete(key);
+              deleted.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+              LOG.warn("Failed to delete {}", key, e);
+              failed.incrementAndGet();
+            }
+          } else {
+            skipped.incrementAndGet();
+          }
+          continue;
+        }
+        if (!parseData.getStatus().isSuccess()) {
+          skipped.incrementAndGet();
+          continue;
+        }
+        Content rawContent = null;
+        if (addBinaryContent) {
+          rawContent = getContent(contentReaders, url, content);
+          if (rawContent == null) {
+            skipped.incrementAndGet();
+            continue;
+          }
+        }
+        try {
+          writer.write(createDocument(key, parseText, parseData, dbDatum, rawContent));
+          indexed.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+          // E.g. a document without a content type, or one rejected by the SDK.
+          LOG.warn("Failed to index {}", key, e);
+          failed.incrementAndGet();
+        }
+      }
+    } finally {
+      closeAll(crawlDbReaders);
+      closeAll(contentReaders);
+    }
+  }
+
+  @VisibleForTesting
+  static NutchDocument createDocument(
+      String url, ParseText parseText, ParseData parseData, CrawlDatum dbDatum, Content content) {
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, url);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, url);
+    String contentType = (content == null) ? null : content.getContentType();
+    if (contentType == null) {
+      contentType = parseData.getContentMeta().get(Response.CONTENT_TYPE);
+    }
+    if (contentType != null) {
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, contentType);
+    }
+    String title = parseData.getTitle();
+    if (title != null && !title.isEmpty()) {
+      doc.add(GoogleCloudSearchIndexWriter.ITEM_METADATA_TITLE_DEFAULT, title);
+    }
+    if (dbDatum.getModifiedTime() > 0) {
+      doc.add(
+          GoogleCloudSearchIndexWriter.ITEM_METADATA_UPDATE_TIME_DEFAULT,
+          new DateTime(false, dbDatum.getModifiedTime(), 0).toStringRfc3339());
+    }
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, parseText.getText());
+    if (content != null) {
+      doc.add(
+          GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT,
+          Base64.getEncoder().encodeToString(content.getContent()));
+    }
+    return doc;
+  }
+
+  private static boolean isGone(CrawlDatum dbDatum) {
+    switch (dbDatum.getStatus()) {
+      case CrawlDatum.STATUS_DB_GONE:
+      case CrawlDatum.STATUS_DB_REDIR_PERM:
+      case CrawlDatum.STATUS_DB_REDIR_TEMP:
+      case CrawlDatum.STATUS_DB_DUPLICATE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Looks up the content of a URL, whose partitioning is not known, in all content parts. */
+  private static Content getContent(MapFile.Reader[] readers, Text url, Content content)
+      throws IOException {
+    for (MapFile.Reader reader : readers) {
+      if (reader.get(url, content) != null) {
+        return content;
+      }
+    }
+    return null;
+  }
+
+  private static void closeAll(MapFile.Reader[] readers) throws IOException {
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
+  }
+
+  @VisibleForTesting
+  long getIndexedCount() {
+    return indexed.get();
+  }
+
+  @VisibleForTesting
+  long getDeletedCount() {
+    return deleted.get();
+  }
+
+  @VisibleForTesting
+  long getSkippedCount() {
+    return skipped.get();
+  }
+
+  @VisibleForTesting
+  long getFailedCount() {
+    return failed.get();
+  }
+}
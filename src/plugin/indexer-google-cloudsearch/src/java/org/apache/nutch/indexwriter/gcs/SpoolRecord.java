@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+import com.google.api.services.cloudsearch.v1.model.Item;
+
+/**
+ * One line of an item spool segment, see {@link ItemSpoolWriter}.
+ *
+ * <p>An {@code index} record holds the fully built {@link Item} together with its Base64 encoded
+ * content. A {@code delete} record holds only the item ID and the version used for the delete.
+ */
+public class SpoolRecord extends GenericJson {
+  static final String OP_INDEX = "index";
+  static final String OP_DELETE = "delete";
+
+  @Key private String op;
+  @Key private String id;
+  @Key private Item item;
+  @Key private String contentFormat;
+  @Key private String mimeType;
+  @Key private String content;
+  @Key private String version;
+
+  public String getOp() {
+    return op;
+  }
+
+  public SpoolRecord setOp(String op) {
+    this.op = op;
+    return this;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public SpoolRecord setId(String id) {
+    this.id = id;
+    return this;
+  }
+
+  public Item getItem() {
+    return item;
+  }
+
+  public SpoolRecord setItem(Item item) {
+    this.item = item;
+    return this;
+  }
+
+  public String getContentFormat() {
+    return contentFormat;
+  }
+
+  public SpoolRecord setContentFormat(String contentFormat) {
+    this.contentFormat = contentFormat;
+    return this;
+  }
+
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  public SpoolRecord setMimeType(String mimeType) {
+    this.mimeType = mimeType;
+    return this;
+  }
+
+  /** Returns the Base64 encoded item content. */
+  public String getContent() {
+    return content;
+  }
+
+  public SpoolRecord setContent(String content) {
+    this.content = content;
+    return this;
+  }
+
+  /** Returns the Base64 encoded delete version. */
+  public String getVersion() {
+    return version;
+  }
+
+  public SpoolRecord setVersion(String version) {
+    this.version = version;
+    return this;
+  }
+
+  @Override
+  public SpoolRecord set(String fieldName, Object value) {
+    return (SpoolRecord) super.set(fieldName, value);
+  }
+
+  @Override
+  public SpoolRecord clone() {
+    return (SpoolRecord) super.clone();
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.RequestMode;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.Helper;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads the segments written by {@link ItemSpoolWriter} to Google Cloud Search.
+ *
+ * <p>Segments are replayed one after the other, in the order they were published and written,
+ * with a limit on the number of requests in flight. A request for an item is only sent once the
+ * previous request for the same item is done, so that an index and a later delete of the same
+ * item are applied in order. Once every record of a segment has been acknowledged, an empty
+ * {@code .done} marker is written next to it. Replaying the same directory again skips the
+ * marked segments, so an interrupted replay resumes with the first incomplete segments. Records
+ * of a partially replayed segment are sent again, which is safe since indexing and deleting an
+ * item are idempotent.
+ */
+public class SpoolReplayTool extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final String DONE_SUFFIX = ".done";
+  static final int DEFAULT_MAX_IN_FLIGHT = 100;
+  private static final String USAGE =
+      "Usage: SpoolReplayTool <spool_dir> -config <gcs_config_file> [-maxInFlight <n>]";
+
+  private final Helper helper;
+
+  public SpoolReplayTool() {
+    this(new Helper());
+  }
+
+  @VisibleForTesting
+  SpoolReplayTool(Helper helper) {
+    this.helper = helper;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int result = ToolRunner.run(NutchConfiguration.create(), new SpoolReplayTool(), args);
+    System.exit(result);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println(USAGE);
+      return -1;
+    }
+    Path spoolDirectory = new Path(args[0]);
+    String configPath = null;
+    int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-config") && i + 1 < args.length) {
+        configPath = args[++i];
+      } else if (args[i].equals("-maxInFlight") && i + 1 < args.length) {
+        try {
+          maxInFlight = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException e) {
+          maxInFlight = 0;
+        }
+        if (maxInFlight < 1) {
+          System.err.println("Invalid value for -maxInFlight: " + args[i]);
+          System.err.println(USAGE);
+          return -1;
+        }
+      } else {
+        System.err.println("Unknown argument: " + args[i]);
+        System.err.println(USAGE);
+        return -1;
+      }
+    }
+    if (configPath == null) {
+      System.err.println("Missing required argument: -config");
+      System.err.println(USAGE);
+      return -1;
+    }
+    return replay(spoolDirectory, configPath, maxInFlight) ? 0 : 1;
+  }
+
+  /**
+   * Replays all pending segments of a spool directory.
+   *
+   * @return {@code true} if every pending segment was replayed completely
+   */
+  boolean replay(Path spoolDirectory, String configPath, int maxInFlight)
+      throws IOException, InterruptedException {
+    if (!helper.isConfigInitialized()) {
+      helper.initConfig(new String[] {"-Dconfig=" + configPath});
+    }
+    IndexingService indexingService;
+    try {
+      indexingService = helper.createIndexingService();
+    } catch (GeneralSecurityException | IOException e) {
+      throw new IOException("failed to create IndexingService", e);
+    }
+    ((Service) indexingService).startAsync().awaitRunning();
+    try {
+      FileSystem fs = spoolDirectory.getFileSystem(getConf());
+      List<Path> pending = new ArrayList<>();
+      for (Path segment : ItemSpoolWriter.listSegments(fs, spoolDirectory)) {
+        if (!fs.exists(doneMarker(segment))) {
+          pending.add(segment);
+        }
+      }
+      LOG.info("Replaying {} pending spool segments from {}", pending.size(), spoolDirectory);
+
+      Semaphore inFlight = new Semaphore(maxInFlight);
+      Map<String, ListenableFuture<?>> inFlightById = new ConcurrentHashMap<>();
+      List<ListenableFuture<Boolean>> results = new ArrayList<>();
+      for (Path segment : pending) {
+        results.add(replaySegment(fs, segment, indexingService, inFlight, inFlightById));
+      }
+      boolean success = true;
+      for (ListenableFuture<Boolean> result : results) {
+        try {
+          success &= result.get();
+        } catch (ExecutionException e) {
+          LOG.warn("Exception caught while replaying spool segment: ", e.getCause());
+          success = false;
+        }
+      }
+      return success;
+    } finally {
+      ((Service) indexingService).stopAsync().awaitTerminated();
+    }
+  }
+
+  /**
+   * Sends the records of a segment.
+   *
+   * @return a future that is done once every request of the segment is done, with whether all
+   *     of them succeeded
+   */
+  private ListenableFuture<Boolean> replaySegment(
+      FileSystem fs,
+      Path segment,
+      IndexingService indexingService,
+      Semaphore inFlight,
+      Map<String, ListenableFuture<?>> inFlightById)
+      throws InterruptedException {
+    List<ListenableFuture<?>> requests = new ArrayList<>();
+    boolean sent = true;
+    try (BufferedReader reader = ItemSpoolWriter.openSegment(fs, segment)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        inFlight.acquire();
+        try {
+          SpoolRecord record = ItemSpoolWriter.parseRecord(line);
+          String id = String.valueOf(record.getId());
+          awaitQuietly(inFlightById.get(id));
+          ListenableFuture<?> request = submit(record, indexingService);
+          inFlightById.put(id, request);
+          request.addListener(
+              () -> {
+                inFlightById.remove(id, request);
+                inFlight.release();
+              },
+              MoreExecutors.directExecutor());
+          requests.add(request);
+        } catch (IOException | RuntimeException e) {
+          inFlight.release();
+          LOG.warn("Exception caught while replaying a record of " + segment + ": ", e);
+          sent = false;
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Exception caught while reading " + segment + ": ", e);
+      sent = false;
+    }
+    boolean allSent = sent;
+    return Futures.whenAllComplete(requests)
+        .call(
+            () -> {
+              boolean success = allSent;
+              for (ListenableFuture<?> request : requests) {
+                try {
+                  Futures.getDone(request);
+                } catch (ExecutionException | CancellationException e) {
+                  LOG.warn("Request failed while replaying " + segment + ": ", e);
+                  success = false;
+                }
+              }
+              if (success) {
+                fs.create(doneMarker(segment), true).close();
+                LOG.info("Replayed {} records from {}", requests.size(), segment);
+              }
+              return success;
+            },
+            MoreExecutors.directExecutor());
+  }
+
+  /** Waits for a previous request for the same item, whether it succeeds or not. */
+  private static void awaitQuietly(ListenableFuture<?> request) throws InterruptedException {
+    if (request == null) {
+      return;
+    }
+    try {
+      request.get();
+    } catch (ExecutionException | CancellationException e) {
+      // Reported with the segment of the request
+    }
+  }
+
+  private static ListenableFuture<?> submit(SpoolRecord record, IndexingService indexingService)
+      throws IOException {
+    switch (String.valueOf(record.getOp())) {
+      case SpoolRecord.OP_INDEX:
+        return indexingService.indexItemAndContent(
+            record.getItem(),
+            new ByteArrayContent(
+                record.getMimeType(), Base64.getDecoder().decode(record.getContent())),
+            null, // hash, since push queues are not used
+            ContentFormat.valueOf(record.getContentFormat()),
+            RequestMode.ASYNCHRONOUS);
+      case SpoolRecord.OP_DELETE:
+        return indexingService.deleteItem(
+            record.getId(),
+            Base64.getDecoder().decode(record.getVersion()),
+            RequestMode.ASYNCHRONOUS);
+      default:
+        throw new IOException("Unknown spool record operation: " + record.getOp());
+    }
+  }
+
+  static Path doneMarker(Path segment) {
+    return new Path(segment.getParent(), segment.getName() + DONE_SUFFIX);
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the requests acknowledged by the indexing API, so that a retry or speculative attempt
+ * of the same task skips the documents a sibling attempt has already delivered.
+ *
+ * <p>Each task attempt appends to its own file, {@code <dir>/<job>/<task>/<attempt>.ledger}, one
+ * {@code <operation>\t<id>} line per acknowledged request. When an attempt starts, it reads the
+ * complete lines of its sibling attempts' files, and then reads the lines appended since at most
+ * once per {@link #REFRESH_INTERVAL_MILLIS}, so that concurrent speculative attempts skip each
+ * other's documents as well. Lines are flushed at most once per {@link #FLUSH_INTERVAL_MILLIS},
+ * so a failed attempt may lose its last few records, which only means that those documents are
+ * uploaded again.
+ *
+ * <p>There is no hook to delete the directory of a job once it has committed, so job directories
+ * that have not been modified for a maximum age are deleted when an attempt opens its ledger.
+ */
+class UploadLedger implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  static final String OP_INDEX = "index";
+  static final String OP_DELETE = "delete";
+  static final String LEDGER_SUFFIX = ".ledger";
+  static final long FLUSH_INTERVAL_MILLIS = 1000;
+  static final long REFRESH_INTERVAL_MILLIS = 10000;
+
+  private final FileSystem fs;
+  private final Path taskDirectory;
+  private final String ledgerName;
+  private final Set<String> deliveredBySiblings = ConcurrentHashMap.newKeySet();
+  // Guards siblingOffsets, apart from the records of this attempt
+  private final Object refreshLock = new Object();
+  // The number of bytes of complete lines read so far, per sibling ledger
+  private final Map<String, Long> siblingOffsets = new HashMap<>();
+  private final FSDataOutputStream out;
+  private volatile long lastRefreshMillis;
+  private long lastFlushMillis;
+  private long recorded;
+  private boolean closed;
+
+  private UploadLedger(
+      FileSystem fs, Path taskDirectory, String ledgerName, FSDataOutputStream out) {
+    this.fs = fs;
+    this.taskDirectory = taskDirectory;
+    this.ledgerName = ledgerName;
+    this.out = out;
+    this.lastFlushMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Deletes the expired job directories, reads the ledgers of the sibling attempts and creates
+   * the ledger of this attempt.
+   *
+   * @param maxAgeMillis the age after which the directory of another job is deleted, or 0 to
+   *     keep all directories
+   */
+  static UploadLedger open(
+      FileSystem fs, Path directory, TaskAttemptID attempt, long maxAgeMillis)
+      throws IOException {
+    String jobName = attempt.getJobID().toString();
+    if (maxAgeMillis > 0) {
+      deleteExpiredJobs(fs, directory, jobName, System.currentTimeMillis() - maxAgeMillis);
+    }
+    Path taskDirectory = new Path(new Path(directory, jobName), attempt.getTaskID().toString());
+    fs.mkdirs(taskDirectory);
+    String ledgerName = attempt.toString() + LEDGER_SUFFIX;
+    UploadLedger ledger =
+        new UploadLedger(fs, taskDirectory, ledgerName,
+            fs.create(new Path(taskDirectory, ledgerName), true));
+    ledger.refresh();
+    LOG.info("{} requests already delivered by other attempts of task {}",
+        ledger.getDeliveredBySiblingsCount(), attempt.getTaskID());
+    return ledger;
+  }
+
+  private static void deleteExpiredJobs(
+      FileSystem fs, Path directory, String jobName, long expiredBeforeMillis) {
+    FileStatus[] jobs;
+    try {
+      jobs = fs.listStatus(directory);
+    } catch (IOException e) {
+      return;
+    }
+    for (FileStatus job : jobs) {
+      if (job.isDirectory()
+          && !job.getPath().getName().equals(jobName)
+          && job.getModificationTime() < expiredBeforeMillis) {
+        try {
+          // Other tasks may delete it at the same time
+          if (fs.delete(job.getPath(), true)) {
+            LOG.info("Deleted expired upload ledgers of {}", job.getPath().getName());
+          }
+        } catch (IOException e) {
+          LOG.warn("Failed to delete expired upload ledgers: {}", job.getPath(), e);
+        }
+      }
+    }
+  }
+
+  /** Reads the complete lines appended to the sibling attempts' ledgers since the last read. */
+  @VisibleForTesting
+  void refresh() throws IOException {
+    synchronized (refreshLock) {
+      lastRefreshMillis = System.currentTimeMillis();
+      FileStatus[] siblings;
+      try {
+        siblings = fs.listStatus(taskDirectory);
+      } catch (FileNotFoundException e) {
+        return;
+      }
+      // Every sibling ledger is read to its end, whatever its listed length: on HDFS, the length
+      // of a file that is still being written does not include the flushed data of its last
+      // block until the file is closed, while reading it does.
+      for (FileStatus sibling : siblings) {
+        String name = sibling.getPath().getName();
+        if (name.endsWith(LEDGER_SUFFIX) && !name.equals(ledgerName)) {
+          long offset = siblingOffsets.getOrDefault(name, 0L);
+          try {
+            siblingOffsets.put(name, offset + readLedger(sibling.getPath(), offset));
+          } catch (FileNotFoundException e) {
+            // Deleted with an expired job since it was listed
+          }
+        }
+      }
+    }
+  }
+
+  /** Reads the complete lines from the offset on, and returns the number of bytes they take. */
+  private long readLedger(Path path, long offset) throws IOException {
+    byte[] bytes;
+    try (FSDataInputStream in = fs.open(path)) {
+      in.seek(offset);
+      bytes = ByteStreams.toByteArray(in);
+    }
+    // An attempt may be writing, or may have failed while writing, the last line
+    int end = bytes.length;
+    while (end > 0 && bytes[end - 1] != '\n') {
+      end--;
+    }
+    for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+      if (!line.isEmpty()) {
+        deliveredBySiblings.add(line);
+      }
+    }
+    return end;
+  }
+
+  /** Returns whether a sibling attempt has already delivered the request. */
+  boolean isDelivered(String operation, String id) {
+    if (System.currentTimeMillis() - lastRefreshMillis >= REFRESH_INTERVAL_MILLIS) {
+      try {
+        refresh();
+      } catch (IOException e) {
+        // Only means that documents already delivered may be uploaded again
+        LOG.warn("Failed to read the upload ledgers of sibling attempts", e);
+      }
+    }
+    return deliveredBySiblings.contains(key(operation, id));
+  }
+
+  /** Returns the number of requests delivered by sibling attempts. */
+  int getDeliveredBySiblingsCount() {
+    return deliveredBySiblings.size();
+  }
+
+  /** Returns the number of requests recorded by this attempt. */
+  synchronized long getRecordedCount() {
+    return recorded;
+  }
+
+  /**
+   * Wraps an upload, so that the request is recorded once the indexing API has acknowledged it.
+   */
+  Supplier<ListenableFuture<?>> recordWhenAcknowledged(
+      String operation, String id, Supplier<ListenableFuture<?>> upload) {
+    return () -> {
+      ListenableFuture<?> result = upload.get();
+      if (result != null) {
+        Futures.addCallback(
+            result,
+            new FutureCallback<Object>() {
+              @Override
+              public void onSuccess(Object operationResult) {
+                record(operation, id);
+              }
+
+              @Override
+              public void onFailure(Throwable t) {
+                // Not delivered, so a retry has to upload it again
+              }
+            },
+            MoreExecutors.directExecutor());
+      }
+      return result;
+    };
+  }
+
+  @VisibleForTesting
+  synchronized void record(String operation, String id) {
+    if (closed) {
+      return;
+    }
+    try {
+      out.write((key(operation, id) + "\n").getBytes(StandardCharsets.UTF_8));
+      recorded++;
+      long now = System.currentTimeMillis();
+      if (now - lastFlushMillis >= FLUSH_INTERVAL_MILLIS) {
+        out.hflush();
+        lastFlushMillis = now;
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to record delivered request: {} {}", operation, id, e);
+    }
+  }
+
+  /** Makes the records of this attempt visible to its siblings. */
+  @VisibleForTesting
+  synchronized void flush() throws IOException {
+    if (!closed) {
+      out.hflush();
+      lastFlushMillis = System.currentTimeMillis();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      out.close();
+    }
+  }
+
+  private static String key(String operation, String id) {
+    return operation + '\t' + id;
+  }
+}
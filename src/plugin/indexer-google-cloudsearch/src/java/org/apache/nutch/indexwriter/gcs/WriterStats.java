@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexwriter.gcs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Named counters of the index writer, logged as a summary when the writer is closed. */
+class WriterStats {
+  static final String DOCUMENTS_INDEXED = "documents.indexed";
+  static final String DOCUMENTS_METADATA_ONLY = "documents.metadataOnly";
+  static final String DOCUMENTS_UNCHANGED = "documents.unchanged";
+  static final String CONTENT_INLINE = "content.inline";
+  static final String CONTENT_INLINE_BYTES = "content.inlineBytes";
+  static final String CONTENT_UPLOADED = "content.uploaded";
+  static final String CONTENT_UPLOADED_BYTES = "content.uploadedBytes";
+  static final String RESUMABLE_UPLOADS = "documents.resumableUploads";
+  static final String DOCUMENTS_SPOOLED = "documents.spooled";
+  static final String DOCUMENTS_FAILED = "documents.failed";
+  static final String DOCUMENTS_ALREADY_DELIVERED = "documents.alreadyDelivered";
+  static final String DOCUMENTS_DELETED = "documents.deleted";
+  static final String DOCUMENTS_BOILERPLATE_STRIPPED = "documents.boilerplateStripped";
+  static final String BOILERPLATE_CHARS_STRIPPED = "boilerplate.strippedChars";
+  static final String REJECTED_MIME_TYPE = "admission.rejectedMimeType";
+  static final String REJECTED_SIZE = "admission.rejectedSize";
+  static final String REJECTED_URL = "admission.rejectedUrl";
+  static final String VALIDATION_REJECTED = "validation.rejected";
+  static final String VALIDATION_REPAIRED = "validation.repaired";
+
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+  void increment(String name) {
+    add(name, 1);
+  }
+
+  void add(String name, long delta) {
+    counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+  }
+
+  long get(String name) {
+    LongAdder counter = counters.get(name);
+    return (counter == null) ? 0 : counter.sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+      builder.append(entry.getKey()).append('=').append(entry.getValue().sum());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,210 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.nutch.indexer.IndexWriterParams;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.Helper;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.UploadFormat;
+
+/**
+ * Training run for the AppCDS archive built by the {@code appcds} profile, and smoke test of the
+ * minimized plugin jar: it pushes documents of a few types and sizes through the index writer,
+ * in both upload formats, so that the JVM archives the classes a Nutch indexing task loads.
+ *
+ * <p>The run is done against the shaded plugin jar, whose Guava is relocated and minimized. A
+ * class that the minimized jar lacks fails the run, and so the build, as does a document that
+ * does not reach the stub indexing service. This class is compiled against the unshaded Guava,
+ * so it must not use any Guava type: the stub indexing service is a reflective proxy, which
+ * looks up the Guava classes next to the {@code IndexingService} it implements.
+ */
+public class AppCdsTraining {
+  private static final String[] MIME_TYPES = {
+    "text/html", "application/pdf", "text/plain", "image/png"
+  };
+  private static final String HEADER =
+      "Home Products Services About us Contact Careers Blog Support Login Search";
+
+  public static void main(String[] args) throws Exception {
+    int documents = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    File config = File.createTempFile("appcds", ".properties");
+    config.deleteOnExit();
+    try (Writer writer = Files.newBufferedWriter(config.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("api.sourceId=training\n");
+    }
+    Class<?> futureType = futureType();
+    if (!futureType.getName().startsWith("shade.")) {
+      throw new IllegalStateException(
+          "Not running from the shaded plugin jar, the SDK uses " + futureType.getName());
+    }
+    for (UploadFormat format : UploadFormat.values()) {
+      StubHandler stub = new StubHandler(futureType);
+      GoogleCloudSearchIndexWriter writer =
+          new GoogleCloudSearchIndexWriter(new TrainingHelper(createStubIndexingService(stub)));
+      Map<String, String> params = new HashMap<>();
+      params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_CONFIG_FILE, config.getPath());
+      params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT, format.name());
+      params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_DENY, "image/*");
+      if (format == UploadFormat.RAW) {
+        params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE, "true");
+      } else {
+        params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS, "2");
+      }
+      writer.open(new IndexWriterParams(params));
+      int admitted = 0;
+      int deleted = 0;
+      try {
+        for (int i = 0; i < documents; i++) {
+          writer.write(createDocument(i, format));
+          if (!MIME_TYPES[i % MIME_TYPES.length].startsWith("image/")) {
+            admitted++;
+          }
+          if (i % 10 == 0) {
+            writer.delete("http://training" + (i % 3) + ".example.com/deleted/" + i);
+            deleted++;
+          }
+        }
+      } finally {
+        writer.close();
+      }
+      stub.check("indexItemAndContent", admitted);
+      stub.check("deleteItem", deleted);
+      long indexed = writer.getStats().get(WriterStats.DOCUMENTS_INDEXED);
+      if (indexed != admitted) {
+        throw new IllegalStateException(
+            format + ": " + indexed + " documents indexed, expected " + admitted);
+      }
+    }
+  }
+
+  private static NutchDocument createDocument(int number, UploadFormat format) {
+    String url = "http://training" + (number % 3) + ".example.com/" + number;
+    StringBuilder text = new StringBuilder(HEADER);
+    for (int i = 0; text.length() < (256 << (number % 8)); i++) {
+      text.append(i % 16 == 0 ? '\n' : ' ').append('d').append(number).append('w').append(i);
+    }
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, url);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, url);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE,
+        MIME_TYPES[number % MIME_TYPES.length]);
+    doc.add("title", "Document " + number);
+    if (format == UploadFormat.RAW) {
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT,
+          Base64.getEncoder().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8)));
+    } else {
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, text.toString());
+    }
+    return doc;
+  }
+
+  private static IndexingService createStubIndexingService(StubHandler stub)
+      throws ClassNotFoundException {
+    ClassLoader classLoader = IndexingService.class.getClassLoader();
+    String concurrentPackage = futureType().getPackage().getName();
+    Class<?> serviceType = Class.forName(concurrentPackage + ".Service", true, classLoader);
+    return (IndexingService)
+        Proxy.newProxyInstance(
+            classLoader, new Class<?>[] {IndexingService.class, serviceType}, stub);
+  }
+
+  /** Returns the (possibly relocated) ListenableFuture type, as used by the SDK. */
+  private static Class<?> futureType() {
+    for (Method method : IndexingService.class.getMethods()) {
+      if (method.getName().equals("deleteItem")) {
+        return method.getReturnType();
+      }
+    }
+    throw new IllegalStateException("IndexingService.deleteItem not found");
+  }
+
+  private static class StubHandler implements InvocationHandler {
+    private final Method immediateFuture;
+    private final Map<String, Integer> calls = new HashMap<>();
+    private final byte[] buffer = new byte[8192];
+    private boolean running;
+
+    StubHandler(Class<?> futureType) throws ClassNotFoundException {
+      Class<?> futuresType =
+          Class.forName(
+              futureType.getPackage().getName() + ".Futures", true, futureType.getClassLoader());
+      try {
+        immediateFuture = futuresType.getMethod("immediateFuture", Object.class);
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /** Fails unless the method was called the expected number of times. */
+    synchronized void check(String method, int expected) {
+      int actual = calls.getOrDefault(method, 0);
+      if (actual != expected) {
+        throw new IllegalStateException(
+            method + " called " + actual + " times, expected " + expected);
+      }
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      calls.merge(method.getName(), 1, Integer::sum);
+      switch (method.getName()) {
+        case "indexItemAndContent":
+          try (InputStream in = ((AbstractInputStreamContent) args[1]).getInputStream()) {
+            while (in.read(buffer) != -1) {
+              // discard
+            }
+          }
+          return immediateFuture.invoke(null, (Object) null);
+        case "startAsync":
+          running = true;
+          return proxy;
+        case "stopAsync":
+          running = false;
+          return proxy;
+        case "isRunning":
+          return running;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "AppCdsTraining stub";
+        default:
+          Class<?> type = method.getReturnType();
+          if (type.getSimpleName().equals("ListenableFuture")) {
+            return immediateFuture.invoke(null, (Object) null);
+          } else if (type == boolean.class) {
+            return false;
+          } else if (type.getName().startsWith("com.google.api.services.")) {
+            return type.newInstance(); // e.g. the Schema
+          }
+          return null;
+      }
+    }
+  }
+
+  private static class TrainingHelper extends Helper {
+    private final IndexingService indexingService;
+
+    TrainingHelper(IndexingService indexingService) {
+      this.indexingService = indexingService;
+    }
+
+    @Override
+    IndexingService createIndexingService() {
+      return indexingService;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.UploadFormat;
+import org.apache.tika.Tika;
+
+/**
+ * Macro benchmark that pushes the {@code test-content} corpus through the index writer against a
+ * {@link StubIndexingService}, in both RAW and TEXT upload format, and reports throughput,
+ * content bytes and allocated bytes per MIME type.
+ *
+ * <p>The MIME type is detected with Tika, like the {@code index-more} plugin does. The TEXT
+ * content is extracted with Tika when a parser for the type is on the classpath. Only tika-core
+ * comes with Nutch, so without the tika-parsers jar on the classpath the TEXT upload format
+ * covers {@code text/*} documents only, with their raw bytes as text, and the other documents
+ * are left out of it. Each corpus file can be amplified into several documents with
+ * distinct IDs. The first iteration is a warm-up and is not reported.
+ *
+ * <p>Run from the project root with:
+ *
+ * <pre>
+ *   mvn -Pbenchmark test-compile exec:java \
+ *       -Dbenchmark.args="[corpus_dir] [amplification] [iterations]"
+ * </pre>
+ */
+public class CorpusBenchmark {
+  static final String DEFAULT_CORPUS =
+      "src/plugin/indexer-google-cloudsearch/src/test/resources/test-content/web-content";
+
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception {
+    Path corpus = Paths.get(args.length > 0 ? args[0] : DEFAULT_CORPUS);
+    int amplification = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    List<CorpusFile> files = loadCorpus(corpus);
+    System.out.printf("Corpus: %d files from %s, amplification %d%n",
+        files.size(), corpus, amplification);
+    File config = writeSdkConfig();
+    for (UploadFormat format : UploadFormat.values()) {
+      GoogleCloudSearchIndexWriter writer =
+          IndexWriterFixture.openWriter(
+              new StubIndexingService(), config.getPath(), format, Collections.emptyMap());
+      try {
+        List<Document> documents = toDocuments(files, format, amplification);
+        Map<String, Stats> stats = null;
+        for (int i = 0; i < Math.max(iterations, 2); i++) {
+          stats = run(writer, documents);
+        }
+        report(format, stats);
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  static List<CorpusFile> loadCorpus(Path corpus) throws IOException {
+    Tika tika = new Tika();
+    List<CorpusFile> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(corpus)) {
+      for (Path path : paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+        byte[] bytes = Files.readAllBytes(path);
+        String mimeType = tika.detect(bytes, path.getFileName().toString());
+        String text;
+        try {
+          text = tika.parseToString(path.toFile());
+        } catch (Exception e) {
+          text = "";
+        }
+        if (text.trim().isEmpty()) {
+          // No parser for the type, which is only meaningful to index as is for text types
+          text = mimeType.startsWith("text/") ? new String(bytes, StandardCharsets.UTF_8) : null;
+        }
+        files.add(new CorpusFile(corpus.relativize(path).toString(), mimeType, bytes, text));
+      }
+    }
+    return files;
+  }
+
+  static List<Document> toDocuments(
+      List<CorpusFile> files, UploadFormat format, int amplification) {
+    List<Document> documents = new ArrayList<>();
+    for (int copy = 0; copy < amplification; copy++) {
+      for (CorpusFile file : files) {
+        if (format == UploadFormat.TEXT && file.text == null) {
+          continue;
+        }
+        String url = "http://corpus.example.com/" + copy + "/" + file.name;
+        NutchDocument doc;
+        long size;
+        if (format == UploadFormat.RAW) {
+          doc = IndexWriterFixture.rawDocument(url, file.mimeType, file.name, file.bytes);
+          size = file.bytes.length;
+        } else {
+          doc = IndexWriterFixture.textDocument(url, file.mimeType, file.name, file.text);
+          size = file.text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        documents.add(new Document(file.mimeType, size, doc));
+      }
+    }
+    return documents;
+  }
+
+  static Map<String, Stats> run(GoogleCloudSearchIndexWriter writer, List<Document> documents)
+      throws IOException {
+    Map<String, Stats> stats = new TreeMap<>();
+    long threadId = Thread.currentThread().getId();
+    for (Document document : documents) {
+      long allocatedBefore = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      writer.write(document.doc);
+      long nanos = System.nanoTime() - start;
+      long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      stats.computeIfAbsent(document.mimeType, k -> new Stats())
+          .add(document.contentBytes, nanos, allocated);
+    }
+    return stats;
+  }
+
+  private static void report(UploadFormat format, Map<String, Stats> stats) {
+    System.out.printf("%n%s upload format%n", format);
+    System.out.printf("%-45s %6s %12s %10s %10s %14s %10s%n",
+        "MIME type", "docs", "bytes", "docs/s", "MB/s", "alloc/doc", "alloc/byte");
+    Stats total = new Stats();
+    for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+      entry.getValue().print(entry.getKey());
+      total.merge(entry.getValue());
+    }
+    total.print("TOTAL");
+  }
+
+  private static File writeSdkConfig() throws IOException {
+    File config = File.createTempFile("benchmark", ".properties");
+    config.deleteOnExit();
+    try (Writer writer = Files.newBufferedWriter(config.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("api.sourceId=benchmark\n");
+    }
+    return config;
+  }
+
+  static class CorpusFile {
+    final String name;
+    final String mimeType;
+    final byte[] bytes;
+    final String text;
+
+    CorpusFile(String name, String mimeType, byte[] bytes, String text) {
+      this.name = name;
+      this.mimeType = mimeType;
+      this.bytes = bytes;
+      this.text = text;
+    }
+  }
+
+  static class Document {
+    final String mimeType;
+    final long contentBytes;
+    final NutchDocument doc;
+
+    Document(String mimeType, long contentBytes, NutchDocument doc) {
+      this.mimeType = mimeType;
+      this.contentBytes = contentBytes;
+      this.doc = doc;
+    }
+  }
+
+  static class Stats {
+    long documents;
+    long contentBytes;
+    long nanos;
+    long allocatedBytes;
+
+    void add(long contentBytes, long nanos, long allocatedBytes) {
+      this.documents++;
+      this.contentBytes += contentBytes;
+      this.nanos += nanos;
+      this.allocatedBytes += allocatedBytes;
+    }
+
+    void merge(Stats other) {
+      documents += other.documents;
+      contentBytes += other.contentBytes;
+      nanos += other.nanos;
+      allocatedBytes += other.allocatedBytes;
+    }
+
+    void print(String label) {
+      double seconds = Math.max(nanos, 1) / 1e9;
+      System.out.printf("%-45s %6d %12d %10.1f %10.2f %14d %10.2f%n",
+          label,
+          documents,
+          contentBytes,
+          documents / seconds,
+          contentBytes / seconds / (1024 * 1024),
+          allocatedBytes / Math.max(documents, 1),
+          (double) allocatedBytes / Math.max(contentBytes, 1));
+    }
+  }
+}
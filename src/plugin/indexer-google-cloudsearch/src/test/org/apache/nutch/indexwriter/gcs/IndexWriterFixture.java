@@ -0,0 +1,73 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.nutch.indexer.IndexWriterParams;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.Helper;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.UploadFormat;
+
+/**
+ * Index writer and documents shared by the benchmarks and the allocation budgets, which run the
+ * real writer against a {@link StubIndexingService}.
+ */
+final class IndexWriterFixture {
+  private IndexWriterFixture() {}
+
+  /**
+   * Opens a writer that sends its requests to the stub.
+   *
+   * @param params additional writer parameters, may be empty
+   */
+  static GoogleCloudSearchIndexWriter openWriter(
+      StubIndexingService stub, String configFile, UploadFormat format, Map<String, String> params)
+      throws IOException {
+    Map<String, String> allParams = new HashMap<>(params);
+    allParams.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_CONFIG_FILE, configFile);
+    allParams.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT, format.name());
+    GoogleCloudSearchIndexWriter writer =
+        new GoogleCloudSearchIndexWriter(new StubHelper(stub.createProxy()));
+    writer.open(new IndexWriterParams(allParams));
+    return writer;
+  }
+
+  /** Returns a document with the content Base64 encoded, as for the RAW upload format. */
+  static NutchDocument rawDocument(String url, String contentType, String title, byte[] content) {
+    NutchDocument doc = document(url, contentType, title);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT,
+        Base64.getEncoder().encodeToString(content));
+    return doc;
+  }
+
+  /** Returns a document with the extracted text, as for the TEXT upload format. */
+  static NutchDocument textDocument(String url, String contentType, String title, String text) {
+    NutchDocument doc = document(url, contentType, title);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, text);
+    return doc;
+  }
+
+  private static NutchDocument document(String url, String contentType, String title) {
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, url);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, url);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, contentType);
+    doc.add("title", title);
+    return doc;
+  }
+
+  private static class StubHelper extends Helper {
+    private final IndexingService indexingService;
+
+    StubHelper(IndexingService indexingService) {
+      this.indexingService = indexingService;
+    }
+
+    @Override
+    IndexingService createIndexingService() {
+      return indexingService;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.services.cloudsearch.v1.model.Operation;
+import com.google.api.services.cloudsearch.v1.model.Schema;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Service;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process {@link IndexingService} that accepts every request without any network I/O.
+ *
+ * <p>Uploaded content is read completely, like the real service does when it serializes a
+ * request, but is not retained. Unlike a Mockito mock, the stub does not record invocations, so
+ * it can be used for throughput and allocation measurements.
+ */
+class StubIndexingService implements InvocationHandler {
+  private static final ListenableFuture<Operation> DONE = Futures.immediateFuture(new Operation());
+
+  private final AtomicLong indexedItems = new AtomicLong();
+  private final AtomicLong contentBytes = new AtomicLong();
+  private final AtomicLong deletedItems = new AtomicLong();
+  private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]);
+  private volatile Schema schema = new Schema();
+  private volatile boolean running;
+
+  IndexingService createProxy() {
+    return (IndexingService)
+        Proxy.newProxyInstance(
+            IndexingService.class.getClassLoader(),
+            new Class<?>[] {IndexingService.class, Service.class},
+            this);
+  }
+
+  void setSchema(Schema schema) {
+    this.schema = schema;
+  }
+
+  long getIndexedItems() {
+    return indexedItems.get();
+  }
+
+  long getContentBytes() {
+    return contentBytes.get();
+  }
+
+  long getDeletedItems() {
+    return deletedItems.get();
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "indexItemAndContent":
+        contentBytes.addAndGet(drain((AbstractInputStreamContent) args[1]));
+        indexedItems.incrementAndGet();
+        return DONE;
+      case "indexItem":
+        indexedItems.incrementAndGet();
+        return DONE;
+      case "deleteItem":
+        deletedItems.incrementAndGet();
+        return DONE;
+      case "getSchema":
+        return schema;
+      case "startAsync":
+        running = true;
+        return proxy;
+      case "stopAsync":
+        running = false;
+        return proxy;
+      case "isRunning":
+        return running;
+      case "state":
+        return running ? Service.State.RUNNING : Service.State.TERMINATED;
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+        return "StubIndexingService";
+      default:
+        return defaultValue(method.getReturnType());
+    }
+  }
+
+  private long drain(AbstractInputStreamContent content) throws IOException {
+    byte[] buffer = buffers.get();
+    long total = 0;
+    try (InputStream in = content.getInputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        total += read;
+      }
+    }
+    return total;
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == ListenableFuture.class) {
+      return Futures.immediateFuture(null);
+    } else if (type == boolean.class) {
+      return false;
+    } else if (type == int.class || type == long.class) {
+      return type == int.class ? (Object) 0 : (Object) 0L;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,103 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.nutch.indexer.IndexWriterParams;
+import org.apache.nutch.indexwriter.gcs.AdmissionFilter.Decision;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestAdmissionFilter {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final Map<String, String> params = new HashMap<>();
+
+  @Test
+  public void emptyParametersShouldAdmitEverything() throws IOException {
+    AdmissionFilter filter = createFilter();
+    assertFalse(filter.isEnabled());
+    assertEquals(Decision.ADMITTED, filter.check("image/png", "http://x.yz/a.png", 1L << 40));
+  }
+
+  @Test
+  public void mimeTypesShouldBeMatchedByGlobs() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_ALLOW,
+        "text/*, application/pdf, application/vnd.*");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_DENY,
+        "application/vnd.dxf, text/x-*");
+    AdmissionFilter filter = createFilter();
+    assertTrue(filter.isEnabled());
+    assertEquals(Decision.ADMITTED, filter.check("text/html; charset=UTF-8", null, -1));
+    assertEquals(Decision.ADMITTED, filter.check("Application/PDF", null, -1));
+    assertEquals(Decision.ADMITTED, filter.check("application/vnd.ms-excel", null, -1));
+    assertEquals(Decision.REJECTED_MIME_TYPE, filter.check("application/vnd.dxf", null, -1));
+    assertEquals(Decision.REJECTED_MIME_TYPE, filter.check("text/x-c", null, -1));
+    assertEquals(Decision.REJECTED_MIME_TYPE, filter.check("image/png", null, -1));
+    assertEquals(Decision.REJECTED_MIME_TYPE, filter.check("application/pdfx", null, -1));
+  }
+
+  @Test
+  public void contentSizeShouldBeLimited() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES, "100");
+    AdmissionFilter filter = createFilter();
+    assertEquals(Decision.ADMITTED, filter.check("text/plain", null, 100));
+    assertEquals(Decision.ADMITTED, filter.check("text/plain", null, -1));
+    assertEquals(Decision.REJECTED_SIZE, filter.check("text/plain", null, 101));
+  }
+
+  @Test
+  public void urlsShouldBeMatchedByRegularExpressions() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_ALLOW,
+        "^https?://([a-z]+\\.)?x\\.yz/");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_DENY, "/private/|\\.zip$");
+    AdmissionFilter filter = createFilter();
+    assertEquals(Decision.ADMITTED, filter.check("text/plain", "https://www.x.yz/a", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://x.yz/private/a", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://x.yz/a.zip", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://other.org/a", -1));
+  }
+
+  @Test
+  public void urlPatternsShouldKeepCommas() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_ALLOW,
+        "^https?://x\\.yz/[0-9]{1,3}/[^,]+$");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_DENY, "[,;]");
+    AdmissionFilter filter = createFilter();
+    assertEquals(Decision.ADMITTED, filter.check("text/plain", "http://x.yz/12/a", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://x.yz/1234/a", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://x.yz/12/a,b", -1));
+    assertEquals(Decision.REJECTED_URL, filter.check("text/plain", "http://x.yz/12/a;b", -1));
+  }
+
+  @Test
+  public void invalidUrlPatternShouldFail() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_DENY, "ok|[unclosed");
+    thrown.expect(IOException.class);
+    thrown.expectMessage(
+        "Invalid value for '" + GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_URL_DENY + "'");
+    createFilter();
+  }
+
+  @Test
+  public void decodedLengthShouldMatchDecoder() {
+    for (int length = 0; length < 10; length++) {
+      byte[] bytes = new byte[length];
+      String padded = Base64.getEncoder().encodeToString(bytes);
+      String unpadded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+      assertEquals(length, AdmissionFilter.decodedLength(padded));
+      assertEquals(length, AdmissionFilter.decodedLength(unpadded));
+    }
+    assertEquals(-1, AdmissionFilter.decodedLength(null));
+  }
+
+  private AdmissionFilter createFilter() throws IOException {
+    return AdmissionFilter.fromParameters(new IndexWriterParams(params));
+  }
+}
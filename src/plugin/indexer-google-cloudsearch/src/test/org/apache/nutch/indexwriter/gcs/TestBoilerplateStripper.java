@@ -0,0 +1,142 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestBoilerplateStripper {
+  private static final String HOST = "www.example.com";
+  private static final String HEADER =
+      "Home Products Services About us Contact Careers Blog Support Login Search";
+  private static final String FOOTER =
+      "Copyright 2018 Example Inc. All rights reserved. Privacy Terms of use";
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void strip_repeatedHeaderAndFooter_keepsBody() {
+    BoilerplateStripper subject = new BoilerplateStripper(3, 10);
+    for (int i = 0; i < 20; i++) {
+      String text = page(HEADER, body(i), FOOTER);
+      String stripped = subject.strip(HOST, text);
+      if (i < 2) {
+        assertSame("document " + i, text, stripped);
+      } else {
+        assertEquals("document " + i, body(i), stripped.trim());
+      }
+    }
+  }
+
+  @Test
+  public void strip_keepsWhitespaceOfRemainingText() {
+    BoilerplateStripper subject = new BoilerplateStripper(2, 10);
+    subject.strip(HOST, HEADER + "\n" + body(0));
+    assertEquals(
+        "First line\n  second line",
+        subject.strip(HOST, HEADER + "\nFirst line\n  second line"));
+  }
+
+  @Test
+  public void strip_textRepeatedInFewDocuments_isKept() {
+    BoilerplateStripper subject = new BoilerplateStripper(5, 10);
+    for (int i = 0; i < 20; i++) {
+      String text = page((i % 10 == 0) ? HEADER : "", body(i), "");
+      assertSame("document " + i, text, subject.strip(HOST, text));
+    }
+  }
+
+  @Test
+  public void strip_learnsPerHost() {
+    BoilerplateStripper subject = new BoilerplateStripper(2, 10);
+    subject.strip(HOST, page(HEADER, body(0), FOOTER));
+    subject.strip(HOST, page(HEADER, body(1), FOOTER));
+
+    String text = page(HEADER, body(2), FOOTER);
+    assertSame(text, subject.strip("other.example.com", text));
+    assertEquals(body(2), subject.strip(HOST, text).trim());
+  }
+
+  @Test
+  public void strip_leastRecentlyUsedHost_isForgotten() {
+    BoilerplateStripper subject = new BoilerplateStripper(2, 1);
+    subject.strip(HOST, page(HEADER, body(0), FOOTER));
+    subject.strip("other.example.com", page(HEADER, body(1), FOOTER));
+
+    String text = page(HEADER, body(2), FOOTER);
+    assertSame(text, subject.strip(HOST, text));
+  }
+
+  @Test
+  public void strip_concurrentHosts_learnSeparately() throws Exception {
+    BoilerplateStripper subject = new BoilerplateStripper(3, 10);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int host = 0; host < 4; host++) {
+        String name = "host" + host + ".example.com";
+        results.add(
+            executor.submit(
+                () -> {
+                  List<String> stripped = new ArrayList<>();
+                  for (int i = 0; i < 20; i++) {
+                    stripped.add(subject.strip(name, page(HEADER, body(i), FOOTER)).trim());
+                  }
+                  return stripped;
+                }));
+      }
+      for (Future<List<String>> result : results) {
+        List<String> stripped = result.get(10, TimeUnit.SECONDS);
+        for (int i = 2; i < 20; i++) {
+          assertEquals("document " + i, body(i), stripped.get(i));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void strip_documentThatIsAllBoilerplate_isUnchanged() {
+    BoilerplateStripper subject = new BoilerplateStripper(2, 10);
+    subject.strip(HOST, page(HEADER, body(0), FOOTER));
+    String text = page(HEADER, "", FOOTER);
+    assertSame(text, subject.strip(HOST, text));
+  }
+
+  @Test
+  public void strip_fewWords_isUnchanged() {
+    BoilerplateStripper subject = new BoilerplateStripper(2, 10);
+    String text = "Home About Contact";
+    for (int i = 0; i < 5; i++) {
+      assertSame(text, subject.strip(HOST, text));
+    }
+  }
+
+  @Test
+  public void constructor_minDocumentsBelowTwo_throwsException() {
+    thrown.expect(IllegalArgumentException.class);
+    new BoilerplateStripper(1, 10);
+  }
+
+  private static String page(String header, String body, String footer) {
+    return header + "\n" + body + "\n" + footer;
+  }
+
+  /** A body that shares no words with the other bodies. */
+  private static String body(int document) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      builder.append(i == 0 ? "" : " ").append("d").append(document).append("w").append(i);
+    }
+    return builder.toString();
+  }
+}
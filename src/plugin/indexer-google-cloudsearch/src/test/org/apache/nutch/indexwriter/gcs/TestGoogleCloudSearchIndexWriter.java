@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
@@ -15,11 +16,19 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.cloudsearch.v1.model.BooleanPropertyOptions;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.ItemAcl;
+import com.google.api.services.cloudsearch.v1.model.ItemContent;
 import com.google.api.services.cloudsearch.v1.model.ItemMetadata;
 import com.google.api.services.cloudsearch.v1.model.NamedProperty;
 import com.google.api.services.cloudsearch.v1.model.ObjectDefinition;
@@ -28,6 +37,7 @@ import com.google.api.services.cloudsearch.v1.model.PropertyDefinition;
 import com.google.api.services.cloudsearch.v1.model.Schema;
 import com.google.api.services.cloudsearch.v1.model.StructuredDataObject;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration.ResetConfigRule;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration.SetupConfigRule;
@@ -39,11 +49,18 @@ import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
 import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
 import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.RequestMode;
 import com.google.enterprise.cloudsearch.sdk.indexing.StructuredData.ResetStructuredDataRule;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.net.Proxy;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.nutch.indexer.IndexWriterParams;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.Helper;
@@ -51,6 +68,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
@@ -75,6 +93,7 @@ public class TestGoogleCloudSearchIndexWriter {
   @Rule public ResetConfigRule resetConfig = new ResetConfigRule();
   @Rule public SetupConfigRule setupConfig = SetupConfigRule.uninitialized();
   @Rule public ResetStructuredDataRule resetStructuredData = new ResetStructuredDataRule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   @Mock private Helper mockHelper;
   @Mock private IndexWriterParams mockParams;
@@ -248,6 +267,47 @@ public class TestGoogleCloudSearchIndexWriter {
     subject.open(mockParams);
   }
 
+  @Test
+  public void openShouldCreateIndexingServiceWithConfiguredTransport() throws Exception {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT)).thenReturn("APACHE");
+    when(mockHelper.createIndexingService(any(HttpTransport.class)))
+        .thenReturn(mockIndexingService);
+    subject.open(mockParams);
+    verify(mockHelper).createIndexingService(any(HttpTransport.class));
+    verify(mockHelper, never()).createIndexingService();
+  }
+
+  @Test
+  public void openShouldShareTheConfiguredTransportWithTheContentUploader() throws Exception {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT)).thenReturn("APACHE");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn("0");
+    when(mockHelper.getProxy()).thenReturn(Proxy.NO_PROXY);
+    ArgumentCaptor<HttpTransport> transportCaptor = ArgumentCaptor.forClass(HttpTransport.class);
+    when(mockHelper.createIndexingService(transportCaptor.capture()))
+        .thenReturn(mockIndexingService);
+    ResumableContentUploader mockUploader = Mockito.mock(ResumableContentUploader.class);
+    when(mockHelper.createContentUploader(
+            eq(mockIndexingService),
+            any(HttpTransport.class),
+            any(HttpRequestInitializer.class),
+            anyInt(),
+            anyInt()))
+        .thenReturn(mockUploader);
+    subject.open(mockParams);
+    subject.close();
+
+    verify(mockHelper).createContentUploader(
+        eq(mockIndexingService),
+        eq(transportCaptor.getValue()),
+        any(HttpRequestInitializer.class),
+        anyInt(),
+        anyInt());
+    verify(mockUploader).close();
+  }
+
   @Test
   public void openShouldStartIndexingService() throws IOException {
     setupConfig.initConfig(new Properties());
@@ -506,8 +566,656 @@ public class TestGoogleCloudSearchIndexWriter {
     assertEquals(structuredData, itemCaptor.getValue().getStructuredData().getObject());
   }
 
+  @Test
+  public void writeAndDeleteShouldSpoolInsteadOfIndexingWhenSpoolDirIsSet() throws IOException {
+    setupConfig.initConfig(new Properties());
+    File spoolDir = temporaryFolder.newFolder();
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_SPOOL_DIR))
+        .thenReturn(spoolDir.getPath());
+    subject.open(mockParams);
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, CONTENT_BASE64);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_PDF);
+    subject.write(doc);
+    subject.delete(ID);
+    subject.close();
+
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    verify(mockIndexingService, never()).deleteItem(any(), any(), any());
+    FileSystem fs = FileSystem.getLocal(new org.apache.hadoop.conf.Configuration());
+    List<Path> segments = ItemSpoolWriter.listSegments(fs, new Path(spoolDir.getPath()));
+    assertEquals(1, segments.size());
+    try (BufferedReader reader = ItemSpoolWriter.openSegment(fs, segments.get(0))) {
+      SpoolRecord index = ItemSpoolWriter.parseRecord(reader.readLine());
+      assertEquals(SpoolRecord.OP_INDEX, index.getOp());
+      assertEquals(ID, index.getItem().getName());
+      assertEquals(ContentFormat.RAW.name(), index.getContentFormat());
+      assertEquals(CONTENT_BASE64, index.getContent());
+      SpoolRecord delete = ItemSpoolWriter.parseRecord(reader.readLine());
+      assertEquals(SpoolRecord.OP_DELETE, delete.getOp());
+      assertEquals(ID, delete.getId());
+    }
+  }
+
+  @Test
+  public void openShouldFailWhenSpoolSegmentSizeHasInvalidValue() throws IOException {
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_SPOOL_DIR))
+        .thenReturn(temporaryFolder.getRoot().getPath());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_SPOOL_MAX_RECORDS))
+        .thenReturn("many");
+    thrown.expect(IOException.class);
+    thrown.expectMessage(
+        "Invalid value for '" + GoogleCloudSearchIndexWriter.CONFIG_KEY_SPOOL_MAX_RECORDS + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void writeShouldRejectItemsThatDoNotMatchTheSchema() throws IOException {
+    writeWithChangedSchema("REJECT");
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    assertEquals(1, subject.getStats().get(WriterStats.VALIDATION_REJECTED));
+    assertEquals(0, subject.getStats().get(WriterStats.DOCUMENTS_INDEXED));
+  }
+
+  @Test
+  public void writeShouldRepairItemsThatDoNotMatchTheSchema() throws IOException {
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    writeWithChangedSchema("REPAIR");
+    verify(mockIndexingService)
+        .indexItemAndContent(itemCaptor.capture(), any(), any(), any(), any());
+    assertNull(itemCaptor.getValue().getStructuredData());
+    assertNull(itemCaptor.getValue().getMetadata().getObjectType());
+    assertEquals(1, subject.getStats().get(WriterStats.VALIDATION_REPAIRED));
+    assertEquals(1, subject.getStats().get(WriterStats.DOCUMENTS_INDEXED));
+  }
+
+  @Test
+  public void openShouldFailWhenSchemaValidationHasInvalidValue() throws IOException {
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_SCHEMA_VALIDATION))
+        .thenReturn("sometimes");
+    thrown.expect(IOException.class);
+    thrown.expectMessage(
+        "Unknown value for '" + GoogleCloudSearchIndexWriter.CONFIG_KEY_SCHEMA_VALIDATION + "'");
+    subject.open(mockParams);
+  }
+
+  private void writeWithChangedSchema(String validationMode) throws IOException {
+    PropertyDefinition prop1 = new PropertyDefinition().setName("approved").setIsRepeatable(false)
+        .setIsReturnable(true).setBooleanPropertyOptions(new BooleanPropertyOptions());
+    Schema schema = new Schema();
+    schema.setObjectDefinitions(
+        Arrays.asList(
+            new ObjectDefinition()
+                .setName("schema1")
+                .setPropertyDefinitions(Arrays.asList(prop1))));
+
+    Properties config = new Properties();
+    config.put(IndexingItemBuilder.OBJECT_TYPE_VALUE, "schema1");
+    setupConfig.initConfig(config);
+
+    // The items are built with the first schema, and validated against the second one, which
+    // no longer defines the object type.
+    when(mockIndexingService.getSchema()).thenReturn(schema, new Schema());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT)).thenReturn("TEXT");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_SCHEMA_VALIDATION))
+        .thenReturn(validationMode);
+    subject.open(mockParams);
+
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, CONTENT);
+    doc.add("approved", "true");
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_TEXT);
+    subject.write(doc);
+  }
+
+  @Test
+  public void writeAndDeleteShouldGoThroughTheFairShareScheduler() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE)).thenReturn("true");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS))
+        .thenReturn("x.yz:3, other.org:1");
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    when(mockIndexingService.deleteItem(any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    subject.open(mockParams);
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, CONTENT_BASE64);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_PDF);
+    subject.write(doc);
+    subject.delete(URL);
+    subject.close();
+    InOrder inOrder = Mockito.inOrder(mockIndexingService);
+    inOrder.verify(mockIndexingService)
+        .indexItemAndContent(
+            eq(goldenItem(!APPLY_DOMAIN_ACLS, MIME_PDF)),
+            any(),
+            eq(null),
+            eq(ContentFormat.RAW),
+            eq(RequestMode.ASYNCHRONOUS));
+    inOrder.verify(mockIndexingService).deleteItem(eq(URL), any(), eq(RequestMode.ASYNCHRONOUS));
+  }
+
+  @Test
+  public void openShouldFailWhenFairShareHostWeightsHaveInvalidValue() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE)).thenReturn("true");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS))
+        .thenReturn("x.yz=3");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_FAIR_SHARE_HOST_WEIGHTS + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void writeShouldSendOnlyMetadataWhenContentIsUnchanged() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    String contentHash =
+        ItemFingerprints.contentHash(
+            new ByteArrayContent(MIME_PDF, CONTENT.getBytes()), ContentFormat.RAW);
+    ItemContent previousContent =
+        new ItemContent()
+            .setHash(contentHash)
+            .setContentFormat(ContentFormat.RAW.name())
+            .setInlineContent(CONTENT_BASE64);
+    when(mockIndexingService.getItem(ID))
+        .thenReturn(
+            new Item()
+                .setName(ID)
+                .setContent(previousContent)
+                .setMetadata(new ItemMetadata().setHash("old metadata")));
+    when(mockIndexingService.indexItem(any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    subject.open(mockParams);
+    subject.write(rawDocument("New title"));
+    subject.awaitPendingUpdates();
+
+    verify(mockIndexingService).indexItem(itemCaptor.capture(), eq(RequestMode.ASYNCHRONOUS));
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    Item item = itemCaptor.getValue();
+    assertEquals(previousContent, item.getContent());
+    assertEquals("New title", item.getMetadata().getTitle());
+    assertEquals(ItemFingerprints.metadataHash(item), item.getMetadata().getHash());
+    assertEquals(1, subject.getStats().get(WriterStats.DOCUMENTS_METADATA_ONLY));
+  }
+
+  @Test
+  public void writeShouldUploadContentOfNewItemsAndSkipUnchangedOnes() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    when(mockIndexingService.getItem(ID))
+        .thenThrow(
+            new GoogleJsonResponseException(
+                new HttpResponseException.Builder(404, "Not Found", new HttpHeaders()), null));
+    subject.open(mockParams);
+    subject.write(rawDocument("Title"));
+    subject.awaitPendingUpdates();
+
+    ArgumentCaptor<String> hashCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mockIndexingService)
+        .indexItemAndContent(
+            itemCaptor.capture(),
+            any(),
+            hashCaptor.capture(),
+            eq(ContentFormat.RAW),
+            eq(RequestMode.ASYNCHRONOUS));
+    Item indexed = itemCaptor.getValue();
+    assertEquals(ItemFingerprints.metadataHash(indexed), indexed.getMetadata().getHash());
+
+    Mockito.reset(mockIndexingService);
+    when(mockIndexingService.getItem(ID))
+        .thenReturn(
+            new Item()
+                .setName(ID)
+                .setContent(new ItemContent().setHash(hashCaptor.getValue()))
+                .setMetadata(new ItemMetadata().setHash(indexed.getMetadata().getHash())));
+    subject.write(rawDocument("Title"));
+    subject.awaitPendingUpdates();
+
+    verify(mockIndexingService).getItem(ID);
+    verifyNoMoreInteractions(mockIndexingService);
+    assertEquals(1, subject.getStats().get(WriterStats.DOCUMENTS_INDEXED));
+    assertEquals(1, subject.getStats().get(WriterStats.DOCUMENTS_UNCHANGED));
+  }
+
+  @Test
+  public void writeShouldUploadContentWhenContentHasChanged() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    when(mockIndexingService.getItem(ID))
+        .thenReturn(
+            new Item()
+                .setName(ID)
+                .setContent(new ItemContent().setHash("old content"))
+                .setMetadata(new ItemMetadata().setHash("old metadata")));
+    subject.open(mockParams);
+    subject.write(rawDocument("Title"));
+    subject.awaitPendingUpdates();
+
+    verify(mockIndexingService)
+        .indexItemAndContent(
+            any(),
+            itemContentCaptor.capture(),
+            eq(ItemFingerprints.contentHash(
+                new ByteArrayContent(MIME_PDF, CONTENT.getBytes()), ContentFormat.RAW)),
+            eq(ContentFormat.RAW),
+            eq(RequestMode.ASYNCHRONOUS));
+    assertEquals(CONTENT, new String(ByteStreams.toByteArray(
+        itemContentCaptor.getValue().getInputStream())));
+    verify(mockIndexingService, never()).indexItem(any(), any());
+  }
+
+  @Test
+  public void writeShouldRejectDocumentsBeforeDecodingTheirContent() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_DENY))
+        .thenReturn("image/*");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES))
+        .thenReturn("10");
+    subject.open(mockParams);
+
+    NutchDocument image = new NutchDocument();
+    image.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+    image.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+    image.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, "image/png");
+    // Not decoded, so it does not fail the write
+    image.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, "Content_not_in+Base64");
+    subject.write(image);
+    subject.write(rawDocument("Title")); // 14 bytes
+
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    assertEquals(1, subject.getStats().get(WriterStats.REJECTED_MIME_TYPE));
+    assertEquals(1, subject.getStats().get(WriterStats.REJECTED_SIZE));
+  }
+
+  @Test
+  public void openShouldFailWhenMaxContentBytesHasInvalidValue() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES))
+        .thenReturn("10 MB");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MAX_CONTENT_BYTES + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void writeAndDeleteShouldSkipRequestsDeliveredByAnotherAttempt() throws IOException {
+    setupConfig.initConfig(new Properties());
+    File ledgerDir = temporaryFolder.newFolder("ledger");
+    TaskAttemptID previousAttempt = TaskAttemptID.forName("attempt_1540000000000_0001_r_000000_0");
+    org.apache.hadoop.conf.Configuration conf = new org.apache.hadoop.conf.Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    try (UploadLedger ledger =
+        UploadLedger.open(fs, new Path(ledgerDir.getAbsolutePath()), previousAttempt, 0)) {
+      ledger.record(UploadLedger.OP_INDEX, ID);
+      ledger.record(UploadLedger.OP_DELETE, URL);
+    }
+
+    conf.set("mapreduce.task.attempt.id", "attempt_1540000000000_0001_r_000000_1");
+    subject.setConf(conf);
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_LEDGER_DIR))
+        .thenReturn(ledgerDir.getAbsolutePath());
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    subject.open(mockParams);
+    subject.write(rawDocument("Title"));
+    subject.delete(URL);
+    NutchDocument other = rawDocument("Other");
+    other.removeField(GoogleCloudSearchIndexWriter.FIELD_ID);
+    other.add(GoogleCloudSearchIndexWriter.FIELD_ID, "other");
+    subject.write(other);
+    subject.close();
+
+    verify(mockIndexingService)
+        .indexItemAndContent(itemCaptor.capture(), any(), any(), any(), any());
+    assertEquals("other", itemCaptor.getValue().getName());
+    verify(mockIndexingService, never()).deleteItem(any(), any(), any());
+    assertEquals(2, subject.getStats().get(WriterStats.DOCUMENTS_ALREADY_DELIVERED));
+    try (UploadLedger next =
+        UploadLedger.open(
+            fs,
+            new Path(ledgerDir.getAbsolutePath()),
+            TaskAttemptID.forName("attempt_1540000000000_0001_r_000000_2"),
+            0)) {
+      assertTrue(next.isDelivered(UploadLedger.OP_INDEX, "other"));
+    }
+  }
+
+  @Test
+  public void writeShouldUploadLargeContentInChunks() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn(Integer.toString(CONTENT.length() - 1));
+    ResumableContentUploader mockUploader = Mockito.mock(ResumableContentUploader.class);
+    when(mockHelper.createContentUploader(
+            mockIndexingService,
+            null,
+            null,
+            GoogleCloudSearchIndexWriter.RESUMABLE_UPLOAD_CHUNK_SIZE_DEFAULT,
+            GoogleCloudSearchIndexWriter.RESUMABLE_UPLOAD_THREADS_DEFAULT))
+        .thenReturn(mockUploader);
+    doReturn(Futures.immediateFuture(new Operation()))
+        .when(mockUploader).indexItemAndContent(any(), any(), any(), any());
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    subject.open(mockParams);
+    subject.write(rawDocument("Large"));
+    NutchDocument small = rawDocument("Small");
+    small.removeField(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT);
+    small.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, "YWI=");
+    subject.write(small);
+    subject.close();
+
+    ArgumentCaptor<AbstractInputStreamContent> contentCaptor =
+        ArgumentCaptor.forClass(AbstractInputStreamContent.class);
+    verify(mockUploader)
+        .indexItemAndContent(any(), contentCaptor.capture(), eq(null), eq(ContentFormat.RAW));
+    assertTrue(contentCaptor.getValue() instanceof Base64Content);
+    assertEquals(CONTENT,
+        new String(ByteStreams.toByteArray(contentCaptor.getValue().getInputStream())));
+    verify(mockIndexingService)
+        .indexItemAndContent(any(), itemContentCaptor.capture(), any(), any(), any());
+    assertEquals("ab",
+        new String(ByteStreams.toByteArray(itemContentCaptor.getValue().getInputStream())));
+    verify(mockUploader).close();
+    assertEquals(1, subject.getStats().get(WriterStats.RESUMABLE_UPLOADS));
+    assertEquals(2, subject.getStats().get(WriterStats.DOCUMENTS_INDEXED));
+  }
+
+  @Test
+  public void writeShouldFailWhenLargeContentIsNotInValidBase64() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn("0");
+    when(mockHelper.createContentUploader(any(), any(), any(), anyInt(), anyInt()))
+        .thenReturn(Mockito.mock(ResumableContentUploader.class));
+    subjectShouldFailWhenRawUploadModeIsSelectedAndBinaryContentIsNotInValidBase64(
+        subject::write);
+  }
+
+  @Test
+  public void openShouldFailWhenResumableUploadChunkSizeHasInvalidValue() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn("0");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_CHUNK_SIZE))
+        .thenReturn("1000");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_CHUNK_SIZE + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void writeShouldSendSmallContentInlineAndUploadLargerContent() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_INLINE_CONTENT_MAX_BYTES))
+        .thenReturn("2");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn("2");
+    ResumableContentUploader mockUploader = Mockito.mock(ResumableContentUploader.class);
+    when(mockHelper.createContentUploader(any(), any(), any(), anyInt(), anyInt()))
+        .thenReturn(mockUploader);
+    when(mockIndexingService.indexItem(any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    doReturn(Futures.immediateFuture(new Operation()))
+        .when(mockUploader).indexItemAndContent(any(), any(), any(), any());
+    subject.open(mockParams);
+    NutchDocument small = rawDocument("Small");
+    small.removeField(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT);
+    small.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, "YWI=");
+    subject.write(small);
+    subject.write(rawDocument("Large"));
+
+    verify(mockIndexingService).indexItem(itemCaptor.capture(), eq(RequestMode.ASYNCHRONOUS));
+    assertEquals("ab", new String(itemCaptor.getValue().getContent().decodeInlineContent()));
+    assertEquals("RAW", itemCaptor.getValue().getContent().getContentFormat());
+    verify(mockUploader).indexItemAndContent(any(), any(), any(), eq(ContentFormat.RAW));
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    WriterStats stats = subject.getStats();
+    assertEquals(1, stats.get(WriterStats.CONTENT_INLINE));
+    assertEquals(2, stats.get(WriterStats.CONTENT_INLINE_BYTES));
+    assertEquals(1, stats.get(WriterStats.CONTENT_UPLOADED));
+    assertEquals(CONTENT.length(), stats.get(WriterStats.CONTENT_UPLOADED_BYTES));
+    assertEquals(2, stats.get(WriterStats.DOCUMENTS_INDEXED));
+  }
+
+  @Test
+  public void writeShouldUploadContentAboveInlineMaxBytesWithoutResumableUploadThreshold()
+      throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_INLINE_CONTENT_MAX_BYTES))
+        .thenReturn("2");
+    ResumableContentUploader mockUploader = Mockito.mock(ResumableContentUploader.class);
+    when(mockHelper.createContentUploader(any(), any(), any(), anyInt(), anyInt()))
+        .thenReturn(mockUploader);
+    doReturn(Futures.immediateFailedFuture(new IOException("Upload failed")))
+        .when(mockUploader).indexItemAndContent(any(), any(), any(), any());
+    subject.open(mockParams);
+    subject.write(rawDocument("Large"));
+
+    verify(mockUploader).indexItemAndContent(any(), any(), any(), eq(ContentFormat.RAW));
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    WriterStats stats = subject.getStats();
+    assertEquals(0, stats.get(WriterStats.CONTENT_UPLOADED));
+    assertEquals(0, stats.get(WriterStats.CONTENT_UPLOADED_BYTES));
+    assertEquals(0, stats.get(WriterStats.DOCUMENTS_INDEXED));
+    assertEquals(1, stats.get(WriterStats.DOCUMENTS_FAILED));
+  }
+
+  @Test
+  public void writeShouldUploadContentAboveInlineMaxBytesBelowResumableUploadThreshold()
+      throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_INLINE_CONTENT_MAX_BYTES))
+        .thenReturn("2");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_RESUMABLE_UPLOAD_THRESHOLD))
+        .thenReturn("1000000");
+    ResumableContentUploader mockUploader = Mockito.mock(ResumableContentUploader.class);
+    when(mockHelper.createContentUploader(any(), any(), any(), anyInt(), anyInt()))
+        .thenReturn(mockUploader);
+    doReturn(Futures.immediateFuture(new Operation()))
+        .when(mockUploader).indexItemAndContent(any(), any(), any(), any());
+    subject.open(mockParams);
+    subject.write(rawDocument("Large"));
+
+    verify(mockUploader).indexItemAndContent(any(), any(), any(), eq(ContentFormat.RAW));
+    verify(mockIndexingService, never()).indexItemAndContent(any(), any(), any(), any(), any());
+    assertEquals(1, subject.getStats().get(WriterStats.CONTENT_UPLOADED));
+  }
+
+  @Test
+  public void openShouldFailWhenInlineContentMaxBytesIsAboveTheApiLimit() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_INLINE_CONTENT_MAX_BYTES))
+        .thenReturn(Integer.toString(GoogleCloudSearchIndexWriter.API_INLINE_CONTENT_LIMIT + 1));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_INLINE_CONTENT_MAX_BYTES + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void writeShouldStripBoilerplateFromTextContent() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT)).thenReturn("TEXT");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS))
+        .thenReturn("2");
+    subject.open(mockParams);
+    String header = "Home Products Services About us Contact Careers Blog Support Login";
+    String first = header + "\nFirst page of the site, with its own text in it";
+    String second = header + "\nSecond page of the site, with other text in it";
+    for (String content : Arrays.asList(first, second)) {
+      NutchDocument doc = new NutchDocument();
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, content);
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_TEXT);
+      subject.write(doc);
+    }
+
+    verify(mockIndexingService, times(2))
+        .indexItemAndContent(any(), itemContentCaptor.capture(), any(), any(), any());
+    List<ByteArrayContent> contents = itemContentCaptor.getAllValues();
+    assertEquals(first, new String(ByteStreams.toByteArray(contents.get(0).getInputStream())));
+    assertEquals("Second page of the site, with other text in it",
+        new String(ByteStreams.toByteArray(contents.get(1).getInputStream())));
+    assertEquals(1, subject.getStats().get(WriterStats.DOCUMENTS_BOILERPLATE_STRIPPED));
+    assertEquals(header.length() + 1,
+        subject.getStats().get(WriterStats.BOILERPLATE_CHARS_STRIPPED));
+  }
+
+  @Test
+  public void openShouldFailWhenBoilerplateMinDocumentsIsOne() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS))
+        .thenReturn("1");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS + "'");
+    subject.open(mockParams);
+  }
+
+  @Test
+  public void metadataOnlyUpdateShouldUploadContentAgainWhenItIsNotStoredInline()
+      throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    subject.open(mockParams);
+    String contentHash =
+        ItemFingerprints.contentHash(
+            new ByteArrayContent(MIME_PDF, CONTENT.getBytes()), ContentFormat.RAW);
+    // Stored content as returned by items.get, referring to an earlier upload or without bytes
+    String[] storedContents = {
+      "{\"contentFormat\":\"RAW\",\"hash\":\"" + contentHash + "\","
+          + "\"contentDataRef\":{\"name\":\"datasources/1234/items/" + ID + "/upload\"}}",
+      "{\"contentFormat\":\"RAW\",\"hash\":\"" + contentHash + "\"}"
+    };
+    for (String storedContent : storedContents) {
+      Item previous =
+          JacksonFactory.getDefaultInstance().fromString(
+              "{\"name\":\"" + ID + "\",\"content\":" + storedContent
+                  + ",\"metadata\":{\"hash\":\"old metadata\"}}",
+              Item.class);
+      Mockito.reset(mockIndexingService);
+      when(mockIndexingService.getItem(ID)).thenReturn(previous);
+      subject.write(rawDocument("New title"));
+      subject.awaitPendingUpdates();
+
+      verify(mockIndexingService, never()).indexItem(any(), any());
+      verify(mockIndexingService)
+          .indexItemAndContent(
+              itemCaptor.capture(),
+              itemContentCaptor.capture(),
+              eq(contentHash),
+              eq(ContentFormat.RAW),
+              eq(RequestMode.ASYNCHRONOUS));
+      assertEquals("New title", itemCaptor.getValue().getMetadata().getTitle());
+      assertEquals(CONTENT,
+          new String(ByteStreams.toByteArray(itemContentCaptor.getValue().getInputStream())));
+    }
+    assertEquals(0, subject.getStats().get(WriterStats.DOCUMENTS_METADATA_ONLY));
+  }
+
+  @Test
+  public void metadataOnlyUpdatesShouldHashTextBeforeBoilerplateIsStripped() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_UPLOAD_FORMAT)).thenReturn("TEXT");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_BOILERPLATE_MIN_DOCUMENTS))
+        .thenReturn("2");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    when(mockIndexingService.getItem(any())).thenReturn(null);
+    subject.open(mockParams);
+    String header = "Home Products Services About us Contact Careers Blog Support Login";
+    String first = header + "\nFirst page of the site, with its own text in it";
+    String second = header + "\nSecond page of the site, with other text in it";
+    for (String content : Arrays.asList(first, second)) {
+      NutchDocument doc = new NutchDocument();
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, content.substring(header.length() + 1));
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT, content);
+      doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_TEXT);
+      subject.write(doc);
+      subject.awaitPendingUpdates();
+    }
+
+    ArgumentCaptor<String> hashCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mockIndexingService, times(2))
+        .indexItemAndContent(
+            any(), itemContentCaptor.capture(), hashCaptor.capture(), any(), any());
+    assertEquals("Second page of the site, with other text in it",
+        new String(ByteStreams.toByteArray(
+            itemContentCaptor.getAllValues().get(1).getInputStream())));
+    assertEquals(
+        ItemFingerprints.contentHash(second, ContentFormat.TEXT), hashCaptor.getAllValues().get(1));
+  }
+
+  @Test
+  public void deleteShouldWaitForThePendingUpdateOfTheSameItem() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS))
+        .thenReturn("2");
+    when(mockIndexingService.getItem(ID))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(100);
+              return null;
+            });
+    subject.open(mockParams);
+    subject.write(rawDocument("Title"));
+    subject.delete(ID);
+    subject.close();
+
+    InOrder inOrder = Mockito.inOrder(mockIndexingService);
+    inOrder.verify(mockIndexingService)
+        .indexItemAndContent(any(), any(), any(), any(), eq(RequestMode.ASYNCHRONOUS));
+    inOrder.verify(mockIndexingService).deleteItem(eq(ID), any(), eq(RequestMode.ASYNCHRONOUS));
+  }
+
+  @Test
+  public void openShouldFailWhenLookupThreadsHaveInvalidValue() throws IOException {
+    setupConfig.initConfig(new Properties());
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_UPDATES))
+        .thenReturn("true");
+    when(mockParams.get(GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS))
+        .thenReturn("0");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_METADATA_ONLY_LOOKUP_THREADS + "'");
+    subject.open(mockParams);
+  }
+
   //TODO (sveldurthi): Add test for multi-value field.
 
+  private NutchDocument rawDocument(String title) {
+    NutchDocument doc = new NutchDocument();
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_ID, ID);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_URL, URL);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT, CONTENT_BASE64);
+    doc.add(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE, MIME_PDF);
+    doc.add("title", title);
+    return doc;
+  }
+
   private Item goldenItem(boolean applyDomainAcl, String mimeType) {
     Item item =
         new Item()
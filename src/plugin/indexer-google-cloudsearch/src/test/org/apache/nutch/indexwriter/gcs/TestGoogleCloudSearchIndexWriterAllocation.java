@@ -0,0 +1,214 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.enterprise.cloudsearch.sdk.config.Configuration.ResetConfigRule;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration.SetupConfigRule;
+import com.google.enterprise.cloudsearch.sdk.indexing.StructuredData.ResetStructuredDataRule;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.UploadFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Allocation budgets for the per-document paths of the index writer.
+ *
+ * <p>Each test pushes one document shape through the writer against a
+ * {@link StubIndexingService}, and compares the mean number of bytes the calling thread
+ * allocates per call, after a warm-up, with a budget of a fixed number of bytes plus a number
+ * of bytes per content byte. The per-byte budgets are the copies each path makes plus a small
+ * margin, so one more copy of the content fails them. They can be scaled with
+ * {@code -Dgcs.test.allocationBudgetFactor=<factor>}, e.g. when running with an agent that
+ * allocates itself.
+ *
+ * <p>The budgets run with the unit tests. They are skipped on JVMs without thread allocation
+ * counters, and the TEXT budgets on JDK 8, whose strings are not stored as Latin-1.
+ */
+public class TestGoogleCloudSearchIndexWriterAllocation {
+  private static final String URL = "http://allocation.example.com/some/page.html";
+  private static final int MEASURED_CALLS = 100;
+  private static final long MEASURED_CONTENT_BYTES = 64L << 20;
+
+  /** Item building, ACL, stats and logging of one document, without its content. */
+  private static final long WRITE_BASE_BUDGET = 32 << 10;
+  /**
+   * The UTF-8 encoding of the text, a single copy of the Latin-1 bytes of an ASCII string on
+   * JDK 9 and later.
+   */
+  private static final double TEXT_BUDGET_PER_BYTE = 1.5;
+  /** The Latin-1 bytes of the Base64 string, 4/3 per content byte, and the decoded content. */
+  private static final double RAW_BUDGET_PER_BYTE = 2.5;
+  private static final long DELETE_BUDGET = 4 << 10;
+  /** Documents rejected before their content is decoded cost the same whatever their size. */
+  private static final long REJECTED_BUDGET = 4 << 10;
+
+  private static final double BUDGET_FACTOR =
+      Double.parseDouble(System.getProperty("gcs.test.allocationBudgetFactor", "1.0"));
+
+  @Rule public ResetConfigRule resetConfig = new ResetConfigRule();
+  @Rule public SetupConfigRule setupConfig = SetupConfigRule.uninitialized();
+  @Rule public ResetStructuredDataRule resetStructuredData = new ResetStructuredDataRule();
+
+  private com.sun.management.ThreadMXBean threadMxBean;
+  private StubIndexingService stub;
+  private GoogleCloudSearchIndexWriter subject;
+
+  @Before
+  public void setUp() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threadMxBean = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threadMxBean.isThreadAllocatedMemorySupported());
+    threadMxBean.setThreadAllocatedMemoryEnabled(true);
+    setupConfig.initConfig(new Properties());
+    stub = new StubIndexingService();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (subject != null) {
+      subject.close();
+    }
+  }
+
+  @Test
+  public void write_smallText_staysWithinBudget() throws IOException {
+    assumeLatin1Strings();
+    open(UploadFormat.TEXT);
+    assertWriteWithinBudget(textDocument(2 << 10), 2 << 10, TEXT_BUDGET_PER_BYTE);
+  }
+
+  @Test
+  public void write_largeText_staysWithinBudget() throws IOException {
+    assumeLatin1Strings();
+    open(UploadFormat.TEXT);
+    assertWriteWithinBudget(textDocument(512 << 10), 512 << 10, TEXT_BUDGET_PER_BYTE);
+  }
+
+  @Test
+  public void write_smallRaw_staysWithinBudget() throws IOException {
+    open(UploadFormat.RAW);
+    assertWriteWithinBudget(rawDocument(4 << 10), 4 << 10, RAW_BUDGET_PER_BYTE);
+  }
+
+  @Test
+  public void write_largeRaw_staysWithinBudget() throws IOException {
+    open(UploadFormat.RAW);
+    assertWriteWithinBudget(rawDocument(2 << 20), 2 << 20, RAW_BUDGET_PER_BYTE);
+  }
+
+  @Test
+  public void write_manyFields_staysWithinBudget() throws IOException {
+    open(UploadFormat.RAW);
+    NutchDocument doc = rawDocument(4 << 10);
+    for (int i = 0; i < 20; i++) {
+      doc.add("meta" + i, "value of metadata field " + i);
+    }
+    assertWriteWithinBudget(doc, 4 << 10, RAW_BUDGET_PER_BYTE);
+  }
+
+  @Test
+  public void write_rejectedByAdmissionFilter_doesNotDecodeContent() throws IOException {
+    Map<String, String> params = new HashMap<>();
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_ADMISSION_MIME_DENY, "application/*");
+    open(UploadFormat.RAW, params);
+    NutchDocument doc = rawDocument(2 << 20);
+
+    long allocated = measure(() -> subject.write(doc), callsFor(2 << 20));
+
+    assertEquals(0, stub.getIndexedItems());
+    assertWithinBudget("rejected write", allocated, REJECTED_BUDGET);
+  }
+
+  @Test
+  public void delete_staysWithinBudget() throws IOException {
+    open(UploadFormat.RAW);
+    long allocated = measure(() -> subject.delete(URL), MEASURED_CALLS);
+    assertTrue(stub.getDeletedItems() > 0);
+    assertWithinBudget("delete", allocated, DELETE_BUDGET);
+  }
+
+  private void open(UploadFormat format) throws IOException {
+    open(format, new HashMap<>());
+  }
+
+  private void open(UploadFormat format, Map<String, String> params) throws IOException {
+    subject = IndexWriterFixture.openWriter(stub, "/path/to/config", format, params);
+  }
+
+  /** Compact strings, and so Latin-1 strings, came with JDK 9. */
+  private static void assumeLatin1Strings() {
+    assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+  }
+
+  private void assertWriteWithinBudget(NutchDocument doc, long contentBytes, double perByte)
+      throws IOException {
+    long allocated = measure(() -> subject.write(doc), callsFor(contentBytes));
+    assertTrue(stub.getIndexedItems() > 0);
+    assertEquals(contentBytes * stub.getIndexedItems(), stub.getContentBytes());
+    assertWithinBudget(
+        "write of " + contentBytes + " content bytes",
+        allocated,
+        WRITE_BASE_BUDGET + (long) (perByte * contentBytes));
+  }
+
+  private static void assertWithinBudget(String call, long allocated, long budget) {
+    long scaledBudget = (long) (budget * BUDGET_FACTOR);
+    assertTrue(
+        String.format("%s allocated %d bytes per call, over the budget of %d bytes",
+            call, allocated, scaledBudget),
+        allocated <= scaledBudget);
+  }
+
+  /** Fewer calls for large documents, to keep the test fast. */
+  private static int callsFor(long contentBytes) {
+    return (int) Math.max(10, Math.min(MEASURED_CALLS, MEASURED_CONTENT_BYTES / contentBytes));
+  }
+
+  /**
+   * Returns the mean number of bytes allocated by the current thread per call, after as many
+   * warm-up calls.
+   */
+  private long measure(Call call, int calls) throws IOException {
+    for (int i = 0; i < calls; i++) {
+      call.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    // The counter itself allocates a little, which is measured and subtracted.
+    long start = threadMxBean.getThreadAllocatedBytes(threadId);
+    long overhead = threadMxBean.getThreadAllocatedBytes(threadId) - start;
+    start = threadMxBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < calls; i++) {
+      call.run();
+    }
+    long allocated = threadMxBean.getThreadAllocatedBytes(threadId) - start - overhead;
+    return Math.max(allocated, 0) / calls;
+  }
+
+  private static NutchDocument textDocument(int contentBytes) {
+    char[] text = new char[contentBytes];
+    Arrays.fill(text, 'a');
+    return IndexWriterFixture.textDocument(URL, "text/html", "Some page", new String(text));
+  }
+
+  private static NutchDocument rawDocument(int contentBytes) {
+    byte[] content = new byte[contentBytes];
+    Arrays.fill(content, (byte) 'a');
+    return IndexWriterFixture.rawDocument(URL, "application/pdf", "Some page", content);
+  }
+
+  private interface Call {
+    void run() throws IOException;
+  }
+}
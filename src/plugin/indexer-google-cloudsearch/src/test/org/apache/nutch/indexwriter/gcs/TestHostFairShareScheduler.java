@@ -0,0 +1,148 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class TestHostFairShareScheduler {
+  private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void hostsShouldBeServedInRoundRobinOrder() throws Exception {
+    HostFairShareScheduler subject = new HostFairShareScheduler(100, 100, 1000, 10,
+        Collections.emptyMap());
+    for (int i = 0; i < 4; i++) {
+      subject.submit("big.example.com", 10, record("big" + i));
+    }
+    subject.submit("small.example.com", 10, record("small0"));
+    subject.submit("other.example.com", 10, record("other0"));
+    subject.start();
+    subject.close();
+    assertEquals(Arrays.asList("big0", "small0", "other0", "big1", "big2", "big3"), started);
+  }
+
+  @Test
+  public void weightsShouldScaleTheShareOfAHost() throws Exception {
+    Map<String, Integer> weights = ImmutableMap.of("big.example.com", 2);
+    HostFairShareScheduler subject = new HostFairShareScheduler(100, 100, 1000, 10, weights);
+    for (int i = 0; i < 4; i++) {
+      subject.submit("big.example.com", 10, record("big" + i));
+    }
+    for (int i = 0; i < 2; i++) {
+      subject.submit("small.example.com", 10, record("small" + i));
+    }
+    subject.start();
+    subject.close();
+    assertEquals(Arrays.asList("big0", "big1", "small0", "big2", "big3", "small1"), started);
+  }
+
+  @Test
+  public void largeUploadsShouldWaitForEnoughDeficit() throws Exception {
+    HostFairShareScheduler subject = new HostFairShareScheduler(100, 100, 1000, 10,
+        Collections.emptyMap());
+    subject.submit("big.example.com", 30, record("big0"));
+    subject.submit("small.example.com", 10, record("small0"));
+    subject.submit("small.example.com", 10, record("small1"));
+    subject.submit("small.example.com", 10, record("small2"));
+    subject.start();
+    subject.close();
+    assertEquals(Arrays.asList("small0", "small1", "big0", "small2"), started);
+  }
+
+  @Test
+  public void uploadsShouldStartWhileFewerThanTheLimitAreInFlight() throws Exception {
+    HostFairShareScheduler subject = new HostFairShareScheduler(3, 100, 1000, 10,
+        Collections.emptyMap());
+    CountDownLatch allStarted = new CountDownLatch(3);
+    List<SettableFuture<Object>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      SettableFuture<Object> future = SettableFuture.create();
+      futures.add(future);
+      subject.submit("host" + i, 10, () -> {
+        allStarted.countDown();
+        return future;
+      });
+    }
+    subject.start();
+    assertTrue(allStarted.await(10, TimeUnit.SECONDS));
+    futures.forEach(future -> future.set(null));
+    subject.close();
+  }
+
+  @Test
+  public void uploadsSubmittedWhileTheLimitIsReachedShouldStartInRoundRobinOrder()
+      throws Exception {
+    HostFairShareScheduler subject = new HostFairShareScheduler(1, 100, 1000, 10,
+        Collections.emptyMap());
+    BlockingQueue<SettableFuture<Object>> inFlight = new LinkedBlockingQueue<>();
+    subject.start();
+    subject.submit("big.example.com", 10, pending("big0", inFlight));
+    SettableFuture<Object> first = inFlight.poll(10, TimeUnit.SECONDS);
+    assertNotNull(first);
+    subject.submit("big.example.com", 10, pending("big1", inFlight));
+    subject.submit("big.example.com", 10, pending("big2", inFlight));
+    subject.submit("small.example.com", 10, pending("small0", inFlight));
+    assertEquals(Collections.singletonList("big0"), started);
+    first.set(null);
+    for (int i = 0; i < 3; i++) {
+      SettableFuture<Object> next = inFlight.poll(10, TimeUnit.SECONDS);
+      assertNotNull(next);
+      assertEquals(i + 2, started.size());
+      next.set(null);
+    }
+    subject.close();
+    assertEquals(Arrays.asList("big0", "big1", "small0", "big2"), started);
+  }
+
+  @Test
+  public void closeShouldWaitForUploadsInFlight() throws Exception {
+    HostFairShareScheduler subject = new HostFairShareScheduler(100, 100, 1000, 10,
+        Collections.emptyMap());
+    SettableFuture<Object> future = SettableFuture.create();
+    subject.submit("host", 10, () -> future);
+    subject.start();
+    AtomicBoolean completed = new AtomicBoolean();
+    new Thread(() -> {
+      Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+      completed.set(true);
+      future.set(null);
+    }).start();
+    subject.close();
+    assertTrue(completed.get());
+  }
+
+  private Supplier<ListenableFuture<?>> record(String name) {
+    return () -> {
+      started.add(name);
+      return Futures.immediateFuture(null);
+    };
+  }
+
+  private Supplier<ListenableFuture<?>> pending(
+      String name, BlockingQueue<SettableFuture<Object>> inFlight) {
+    return () -> {
+      started.add(name);
+      SettableFuture<Object> future = SettableFuture.create();
+      inFlight.add(future);
+      return future;
+    };
+  }
+}
@@ -0,0 +1,132 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.testing.http.MockHttpTransport;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.nutch.indexer.IndexWriterParams;
+import org.apache.nutch.indexwriter.gcs.HttpTransportFactory.TransportType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestHttpTransportFactory {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final Map<String, String> params = new HashMap<>();
+
+  @Test
+  public void defaultTransportShouldBeLeftToTheSdk() throws IOException {
+    HttpTransportFactory factory =
+        HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+    assertEquals(TransportType.DEFAULT, factory.getTransportType());
+    assertNull(factory.createTransport(Proxy.NO_PROXY));
+    assertNull(factory.createRequestInitializer());
+  }
+
+  @Test
+  public void apacheTransportShouldBeCreated() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "apache");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS, "50");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_KEEP_ALIVE, "30000");
+    HttpTransportFactory factory =
+        HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+    assertEquals(TransportType.APACHE, factory.getTransportType());
+    HttpTransport transport = factory.createTransport(Proxy.NO_PROXY);
+    assertTrue(transport instanceof ApacheHttpTransport);
+    transport.shutdown();
+  }
+
+  @Test
+  public void requestInitializerShouldSetTheConfiguredTimeouts() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "APACHE");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_CONNECT_TIMEOUT, "1234");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_SOCKET_TIMEOUT, "5678");
+    HttpRequestInitializer initializer =
+        HttpTransportFactory.fromParameters(new IndexWriterParams(params))
+            .createRequestInitializer();
+    HttpRequest request =
+        new MockHttpTransport()
+            .createRequestFactory(initializer)
+            .buildGetRequest(new GenericUrl("http://localhost/"));
+    assertEquals(1234, request.getConnectTimeout());
+    assertEquals(5678, request.getReadTimeout());
+  }
+
+  @Test
+  public void apacheTransportShouldTimeOutWaitingForAPooledConnection() throws Exception {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "APACHE");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS, "1");
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_POOL_TIMEOUT, "100");
+    HttpTransportFactory factory =
+        HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+    HttpTransport transport = factory.createTransport(Proxy.NO_PROXY);
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory(factory.createRequestInitializer());
+    // Accepts connections, but never responds
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      GenericUrl url = new GenericUrl("http://localhost:" + server.getLocalPort() + "/");
+      Thread pending =
+          new Thread(
+              () -> {
+                try {
+                  requestFactory.buildGetRequest(url).execute();
+                } catch (IOException e) {
+                  // The server is closed at the end of the test
+                }
+              });
+      pending.start();
+      try (Socket connection = server.accept()) {
+        thrown.expect(ConnectionPoolTimeoutException.class);
+        requestFactory.buildGetRequest(url).execute();
+      } finally {
+        transport.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void apacheTransportShouldFailWithSocksProxy() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "APACHE");
+    HttpTransportFactory factory =
+        HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("does not support a SOCKS proxy");
+    factory.createTransport(
+        new Proxy(Proxy.Type.SOCKS, InetSocketAddress.createUnresolved("proxy.example.com", 1080)));
+  }
+
+  @Test
+  public void unknownTransportShouldFail() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "carrier-pigeon");
+    thrown.expect(IOException.class);
+    thrown.expectMessage(
+        "Unknown value for '" + GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT + "'");
+    HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+  }
+
+  @Test
+  public void nonPositiveMaxConnectionsShouldFail() throws IOException {
+    params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS, "0");
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid value for '"
+        + GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS + "'");
+    HttpTransportFactory.fromParameters(new IndexWriterParams(params));
+  }
+}
@@ -0,0 +1,77 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemAcl;
+import com.google.api.services.cloudsearch.v1.model.ItemContent;
+import com.google.api.services.cloudsearch.v1.model.ItemMetadata;
+import com.google.api.services.cloudsearch.v1.model.Principal;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Test;
+
+public class TestItemFingerprints {
+
+  @Test
+  public void contentHashShouldDependOnBytesAndFormat() throws IOException {
+    String hash = contentHash("abc", ContentFormat.RAW);
+    assertEquals(hash, contentHash("abc", ContentFormat.RAW));
+    assertNotEquals(hash, contentHash("abd", ContentFormat.RAW));
+    assertNotEquals(hash, contentHash("abc", ContentFormat.TEXT));
+  }
+
+  @Test
+  public void contentHashOfTextShouldBeTheHashOfItsUtf8Bytes() throws IOException {
+    String text = "caf\u00e9 \u4e2d\u6587";
+    assertEquals(
+        ItemFingerprints.contentHash(
+            new ByteArrayContent("text/plain", text.getBytes(StandardCharsets.UTF_8)),
+            ContentFormat.TEXT),
+        ItemFingerprints.contentHash(text, ContentFormat.TEXT));
+  }
+
+  @Test
+  public void metadataHashShouldIgnoreContentVersionAndStoredHash() throws IOException {
+    Item item = item("Title");
+    String hash = ItemFingerprints.metadataHash(item);
+    item.setContent(new ItemContent().setHash("content"))
+        .encodeVersion(new byte[] {1, 2, 3})
+        .getMetadata()
+        .setHash(hash);
+    assertEquals(hash, ItemFingerprints.metadataHash(item));
+    assertEquals(hash, item.getMetadata().getHash());
+  }
+
+  @Test
+  public void metadataHashShouldDependOnMetadataAndAcl() throws IOException {
+    String hash = ItemFingerprints.metadataHash(item("Title"));
+    assertNotEquals(hash, ItemFingerprints.metadataHash(item("Other title")));
+    Principal reader = new Principal().setUserResourceName("user");
+    Item withAcl =
+        item("Title").setAcl(new ItemAcl().setReaders(Collections.singletonList(reader)));
+    assertNotEquals(hash, ItemFingerprints.metadataHash(withAcl));
+  }
+
+  @Test
+  public void storedHashesShouldBeNullWhenMissing() {
+    assertNull(ItemFingerprints.storedContentHash(new Item()));
+    assertNull(ItemFingerprints.storedMetadataHash(new Item()));
+  }
+
+  private static String contentHash(String content, ContentFormat format) throws IOException {
+    return ItemFingerprints.contentHash(new ByteArrayContent("text/plain", content.getBytes()),
+        format);
+  }
+
+  private static Item item(String title) {
+    return new Item()
+        .setName("id")
+        .setMetadata(new ItemMetadata().setTitle(title).setMimeType("text/plain"));
+  }
+}
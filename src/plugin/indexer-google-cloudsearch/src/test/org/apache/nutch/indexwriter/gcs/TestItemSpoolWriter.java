@@ -0,0 +1,187 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestItemSpoolWriter {
+  private static final String CONTENT = "Test1234567890";
+  private static final String MIME_TEXT = "text/plain";
+  private static final String TASK = "task_1_0001_r_000000";
+  private static final String ATTEMPT = "attempt_1_0001_r_000000_0";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private FileSystem fs;
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = FileSystem.getLocal(new Configuration());
+    directory = new Path(temporaryFolder.getRoot().getPath());
+  }
+
+  @Test
+  public void recordsShouldRoundTrip() throws IOException {
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, ATTEMPT, 100, 1024 * 1024);
+    spool.writeIndex(
+        new Item().setName("id1"),
+        new ByteArrayContent(MIME_TEXT, CONTENT.getBytes(StandardCharsets.UTF_8)),
+        ContentFormat.TEXT);
+    spool.writeDelete("id2", "123".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+
+    List<Path> segments = ItemSpoolWriter.listSegments(fs, directory);
+    assertEquals(1, segments.size());
+    try (BufferedReader reader = ItemSpoolWriter.openSegment(fs, segments.get(0))) {
+      SpoolRecord index = ItemSpoolWriter.parseRecord(reader.readLine());
+      assertEquals(SpoolRecord.OP_INDEX, index.getOp());
+      assertEquals("id1", index.getItem().getName());
+      assertEquals(ContentFormat.TEXT.name(), index.getContentFormat());
+      assertEquals(MIME_TEXT, index.getMimeType());
+      assertEquals(CONTENT, new String(Base64.getDecoder().decode(index.getContent()),
+          StandardCharsets.UTF_8));
+
+      SpoolRecord delete = ItemSpoolWriter.parseRecord(reader.readLine());
+      assertEquals(SpoolRecord.OP_DELETE, delete.getOp());
+      assertEquals("id2", delete.getId());
+      assertEquals("123", new String(Base64.getDecoder().decode(delete.getVersion()),
+          StandardCharsets.UTF_8));
+      assertNull(reader.readLine());
+    }
+  }
+
+  @Test
+  public void segmentsShouldRollOverAtMaxRecords() throws IOException {
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, ATTEMPT, 2, 1024 * 1024);
+    for (int i = 0; i < 5; i++) {
+      spool.writeDelete("id" + i, "1".getBytes(StandardCharsets.UTF_8));
+    }
+    spool.close();
+    assertEquals(3, spool.getSegmentCount());
+    assertEquals(3, ItemSpoolWriter.listSegments(fs, directory).size());
+  }
+
+  @Test
+  public void segmentsShouldRollOverAtMaxBytes() throws IOException {
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, ATTEMPT, 100, 1);
+    spool.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    spool.writeDelete("id2", "1".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+    assertEquals(2, ItemSpoolWriter.listSegments(fs, directory).size());
+  }
+
+  @Test
+  public void unfinishedSegmentShouldNotBeListed() throws IOException {
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, ATTEMPT, 100, 1024 * 1024);
+    spool.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    assertTrue(ItemSpoolWriter.listSegments(fs, directory).isEmpty());
+    spool.close();
+    assertEquals(1, ItemSpoolWriter.listSegments(fs, directory).size());
+  }
+
+  @Test
+  public void segmentsShouldRollOverAtMaxEncodedBytes() throws IOException {
+    char[] id = new char[150];
+    Arrays.fill(id, '\u00e9'); // two bytes in UTF-8
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, ATTEMPT, 100, 300);
+    spool.writeDelete(new String(id), "1".getBytes(StandardCharsets.UTF_8));
+    spool.writeDelete("id2", "1".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+    assertEquals(2, ItemSpoolWriter.listSegments(fs, directory).size());
+  }
+
+  @Test
+  public void segmentsOfFailedAttemptShouldBeRemovedWhenTaskIsPublished() throws IOException {
+    ItemSpoolWriter failed =
+        new ItemSpoolWriter(fs, directory, TASK, "attempt_1_0001_r_000000_0", 1, 1024 * 1024);
+    failed.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    failed.writeDelete("id2", "1".getBytes(StandardCharsets.UTF_8)); // never closed
+    assertTrue(ItemSpoolWriter.listSegments(fs, directory).isEmpty());
+
+    ItemSpoolWriter retry =
+        new ItemSpoolWriter(fs, directory, TASK, "attempt_1_0001_r_000000_1", 1, 1024 * 1024);
+    retry.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    retry.close();
+
+    assertEquals(1, ItemSpoolWriter.listSegments(fs, directory).size());
+    assertFalse(fs.exists(new Path(directory, ItemSpoolWriter.STAGING_DIRECTORY + "/" + TASK)));
+  }
+
+  @Test
+  public void segmentsOfSecondAttemptShouldBeDiscarded() throws IOException {
+    for (String attempt : Arrays.asList("attempt_1_0001_r_000000_0", "attempt_1_0001_r_000000_1")) {
+      ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, TASK, attempt, 100, 1024 * 1024);
+      spool.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+      spool.close();
+    }
+    assertEquals(1, ItemSpoolWriter.listSegments(fs, directory).size());
+    assertFalse(fs.exists(new Path(directory, ItemSpoolWriter.STAGING_DIRECTORY + "/" + TASK)));
+  }
+
+  @Test
+  public void segmentsShouldBeDiscardedWhenAnotherAttemptClaimedTheTask() throws IOException {
+    ItemSpoolWriter other =
+        new ItemSpoolWriter(fs, directory, TASK, "attempt_1_0001_r_000000_0", 1, 1024 * 1024);
+    other.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    // Claimed, but not yet renamed, by the other attempt
+    Path claim = new Path(directory,
+        ItemSpoolWriter.STAGING_DIRECTORY + "/" + TASK + ItemSpoolWriter.CLAIM_SUFFIX);
+    fs.create(claim, false).close();
+
+    ItemSpoolWriter spool =
+        new ItemSpoolWriter(fs, directory, TASK, "attempt_1_0001_r_000000_1", 1, 1024 * 1024);
+    spool.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+
+    assertTrue(ItemSpoolWriter.listSegments(fs, directory).isEmpty());
+    assertFalse(fs.exists(new Path(directory,
+        ItemSpoolWriter.STAGING_DIRECTORY + "/" + TASK + "/attempt_1_0001_r_000000_1")));
+    assertTrue(fs.exists(new Path(directory,
+        ItemSpoolWriter.STAGING_DIRECTORY + "/" + TASK + "/attempt_1_0001_r_000000_0")));
+  }
+
+  @Test
+  public void segmentsShouldBeListedInPublishOrder() throws IOException {
+    for (int task = 0; task < 3; task++) {
+      ItemSpoolWriter spool =
+          new ItemSpoolWriter(fs, directory, "task" + (2 - task), "attempt" + task, 1,
+              1024 * 1024);
+      spool.writeDelete("id" + task, "1".getBytes(StandardCharsets.UTF_8));
+      spool.writeDelete("id" + task, "2".getBytes(StandardCharsets.UTF_8));
+      spool.close();
+      sleepUninterruptibly(2, TimeUnit.MILLISECONDS);
+    }
+
+    List<String> versions = new ArrayList<>();
+    for (Path segment : ItemSpoolWriter.listSegments(fs, directory)) {
+      try (BufferedReader reader = ItemSpoolWriter.openSegment(fs, segment)) {
+        SpoolRecord record = ItemSpoolWriter.parseRecord(reader.readLine());
+        versions.add(record.getId() + ":"
+            + new String(Base64.getDecoder().decode(record.getVersion()), StandardCharsets.UTF_8));
+      }
+    }
+    assertEquals(Arrays.asList("id0:1", "id0:2", "id1:1", "id1:2", "id2:1", "id2:2"), versions);
+  }
+}
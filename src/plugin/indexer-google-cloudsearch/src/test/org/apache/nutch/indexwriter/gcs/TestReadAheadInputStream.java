@@ -0,0 +1,145 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.hamcrest.CoreMatchers.isA;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestReadAheadInputStream {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldReadTheWholeSource() throws IOException {
+    byte[] bytes = new byte[100_000];
+    new Random(1).nextBytes(bytes);
+    try (InputStream in =
+        new ReadAheadInputStream(new ByteArrayInputStream(bytes), 4096, 2, executor)) {
+      assertEquals(bytes[0] & 0xff, in.read());
+      byte[] rest = ByteStreams.toByteArray(in);
+      assertEquals(bytes.length - 1, rest.length);
+      assertArrayEquals(bytes, concat(bytes[0], rest));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void emptySourceShouldEndImmediately() throws IOException {
+    try (InputStream in =
+        new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 4096, 1, executor)) {
+      assertEquals(-1, in.read(new byte[10], 0, 10));
+    }
+  }
+
+  @Test
+  public void sourceFailureShouldBeThrownByTheReader() throws IOException {
+    InputStream failing =
+        new InputStream() {
+          private int count;
+
+          @Override
+          public int read() throws IOException {
+            if (count++ == 5000) {
+              throw new IOException("Connection reset");
+            }
+            return 1;
+          }
+        };
+    try (InputStream in = new ReadAheadInputStream(failing, 1024, 2, executor)) {
+      thrown.expect(IOException.class);
+      thrown.expectMessage("Failed to read ahead");
+      ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void uncheckedSourceFailureShouldBeThrownByTheReader() throws IOException {
+    InputStream failing =
+        new InputStream() {
+          @Override
+          public int read() {
+            throw new IllegalArgumentException("Illegal base64 character");
+          }
+        };
+    try (InputStream in = new ReadAheadInputStream(failing, 1024, 2, executor)) {
+      thrown.expect(IOException.class);
+      thrown.expectCause(isA(IllegalArgumentException.class));
+      ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void closeShouldStopReadingAfterTheCurrentBlock() throws Exception {
+    AtomicLong bytesRead = new AtomicLong();
+    CountDownLatch sourceClosed = new CountDownLatch(1);
+    InputStream endless =
+        new InputStream() {
+          @Override
+          public int read() {
+            bytesRead.incrementAndGet();
+            return 1;
+          }
+
+          @Override
+          public void close() {
+            sourceClosed.countDown();
+          }
+        };
+    InputStream in = new ReadAheadInputStream(endless, 1024, 8, executor);
+    assertEquals(1, in.read());
+    long bytesReadBeforeClose = bytesRead.get();
+    in.close();
+    assertTrue(sourceClosed.await(10, TimeUnit.SECONDS));
+    // Not the blocks that would fill the queue again after close() has emptied it
+    assertTrue(bytesRead.get() - bytesReadBeforeClose <= 1024);
+  }
+
+  @Test
+  public void closeShouldStopReadingAndCloseTheSource() throws Exception {
+    CountDownLatch sourceClosed = new CountDownLatch(1);
+    InputStream endless =
+        new InputStream() {
+          @Override
+          public int read() {
+            return 1;
+          }
+
+          @Override
+          public void close() {
+            sourceClosed.countDown();
+          }
+        };
+    InputStream in = new ReadAheadInputStream(endless, 1024, 2, executor);
+    assertEquals(1, in.read());
+    in.close();
+    assertTrue(sourceClosed.await(10, TimeUnit.SECONDS));
+  }
+
+  private static byte[] concat(byte first, byte[] rest) {
+    byte[] result = new byte[rest.length + 1];
+    result[0] = first;
+    System.arraycopy(rest, 0, result, 1, rest.length);
+    return result;
+  }
+}
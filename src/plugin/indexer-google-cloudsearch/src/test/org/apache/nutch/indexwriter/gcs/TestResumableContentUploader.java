@@ -0,0 +1,220 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.BackOff;
+import com.google.api.services.cloudsearch.v1.CloudSearch;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.Operation;
+import com.google.api.services.cloudsearch.v1.model.UploadItemRef;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.RequestMode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestResumableContentUploader {
+  private static final int CHUNK_SIZE = MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+  private static final String UPLOAD_NAME = "datasources/source/items/id/uploads/1";
+  private static final String SESSION_URL = "http://localhost/upload/session";
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  @Mock private IndexingService mockIndexingService;
+
+  private final ResumableUploadTransport transport = new ResumableUploadTransport();
+  private ResumableContentUploader subject;
+
+  @Before
+  public void setUp() throws IOException {
+    CloudSearch cloudSearch =
+        new CloudSearch.Builder(
+                transport,
+                JacksonFactory.getDefaultInstance(),
+                ResumableContentUploader.withRetries(request -> {}, () -> BackOff.ZERO_BACKOFF))
+            .setRootUrl("http://localhost/")
+            .setApplicationName("test")
+            .build();
+    subject = new ResumableContentUploader(mockIndexingService, cloudSearch, CHUNK_SIZE, 1);
+  }
+
+  @After
+  public void tearDown() {
+    subject.close();
+  }
+
+  @Test
+  public void contentShouldBeUploadedInChunksAndThenIndexed() throws Exception {
+    byte[] content = randomBytes(2 * CHUNK_SIZE + 1000);
+    stubStartUpload();
+    when(mockIndexingService.indexItem(any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+
+    subject
+        .indexItemAndContent(new Item().setName("id"), base64Content(content), "hash",
+            ContentFormat.RAW)
+        .get();
+
+    assertArrayEquals(content, transport.received.toByteArray());
+    assertEquals(3, transport.chunks.size());
+    assertFalse(transport.resumed);
+    ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+    verify(mockIndexingService).indexItem(itemCaptor.capture(), eq(RequestMode.ASYNCHRONOUS));
+    Item item = itemCaptor.getValue();
+    assertEquals(UPLOAD_NAME, item.getContent().getContentDataRef().getName());
+    assertEquals("RAW", item.getContent().getContentFormat());
+    assertEquals("hash", item.getContent().getHash());
+  }
+
+  @Test
+  public void failedChunkShouldBeResumedWithoutStartingOver() throws Exception {
+    byte[] content = randomBytes(3 * CHUNK_SIZE);
+    transport.failingChunk = 1;
+    stubStartUpload();
+    when(mockIndexingService.indexItem(any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+
+    subject
+        .indexItemAndContent(new Item().setName("id"), base64Content(content), null,
+            ContentFormat.RAW)
+        .get();
+
+    assertArrayEquals(content, transport.received.toByteArray());
+    assertTrue(transport.resumed);
+    // The second chunk fails and is sent again after the status query, instead of starting over
+    assertEquals("[0, " + CHUNK_SIZE + ", " + CHUNK_SIZE + ", " + 2 * CHUNK_SIZE + "]",
+        transport.chunks.toString());
+  }
+
+  @Test
+  public void failedUploadShouldFailWithoutIndexing() throws Exception {
+    transport.failAll = true;
+    stubStartUpload();
+    try {
+      subject
+          .indexItemAndContent(new Item().setName("id"), base64Content(randomBytes(1000)), null,
+              ContentFormat.RAW)
+          .get();
+      fail("Expected upload to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    verify(mockIndexingService, never()).indexItem(any(), any());
+  }
+
+  @Test
+  public void base64ContentShouldBeDecodedWhileRead() throws IOException {
+    byte[] content = randomBytes(10_000);
+    Base64Content base64Content = base64Content(content);
+    assertEquals(content.length, base64Content.getLength());
+    assertArrayEquals(content, ByteStreams.toByteArray(base64Content.getInputStream()));
+    assertTrue(Base64Content.isValid(Base64.getEncoder().encodeToString(content)));
+    assertTrue(Base64Content.isValid("YWI"));
+    assertFalse(Base64Content.isValid("YWI=="));
+    assertFalse(Base64Content.isValid("Content_not_in+Base64"));
+  }
+
+  private void stubStartUpload() throws IOException {
+    when(mockIndexingService.startUpload("id"))
+        .thenReturn(new UploadItemRef().setName(UPLOAD_NAME));
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static Base64Content base64Content(byte[] content) {
+    return new Base64Content("application/pdf", Base64.getEncoder().encodeToString(content));
+  }
+
+  /** Implements the server side of the resumable upload protocol. */
+  private static class ResumableUploadTransport extends MockHttpTransport {
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final List<Long> chunks = new ArrayList<>();
+    int failingChunk = -1;
+    boolean failAll;
+    boolean resumed;
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          return handle(url, this);
+        }
+      };
+    }
+
+    private synchronized LowLevelHttpResponse handle(String url, MockLowLevelHttpRequest request)
+        throws IOException {
+      if (failAll) {
+        return new MockLowLevelHttpResponse().setStatusCode(400);
+      }
+      if (url.contains("uploadType=resumable")) {
+        return new MockLowLevelHttpResponse().addHeader("Location", SESSION_URL);
+      }
+      assertEquals(SESSION_URL, url);
+      String contentRange = request.getFirstHeaderValue("Content-Range");
+      if (contentRange.startsWith("bytes */")) {
+        resumed = true;
+        return incomplete();
+      }
+      Matcher range = CONTENT_RANGE.matcher(contentRange);
+      assertTrue(contentRange, range.matches());
+      long start = Long.parseLong(range.group(1));
+      assertEquals(received.size(), start);
+      chunks.add(start);
+      if (chunks.size() - 1 == failingChunk && !resumed) {
+        throw new IOException("Connection reset");
+      }
+      request.getStreamingContent().writeTo(received);
+      if (received.size() < Long.parseLong(range.group(3))) {
+        return incomplete();
+      }
+      return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent("{}");
+    }
+
+    private LowLevelHttpResponse incomplete() {
+      MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setStatusCode(308);
+      if (received.size() > 0) {
+        response.addHeader("Range", "bytes=0-" + (received.size() - 1));
+      }
+      return response;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.services.cloudsearch.v1.model.BooleanPropertyOptions;
+import com.google.api.services.cloudsearch.v1.model.EnumPropertyOptions;
+import com.google.api.services.cloudsearch.v1.model.EnumValuePair;
+import com.google.api.services.cloudsearch.v1.model.EnumValues;
+import com.google.api.services.cloudsearch.v1.model.IntegerPropertyOptions;
+import com.google.api.services.cloudsearch.v1.model.IntegerValues;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemMetadata;
+import com.google.api.services.cloudsearch.v1.model.ItemStructuredData;
+import com.google.api.services.cloudsearch.v1.model.NamedProperty;
+import com.google.api.services.cloudsearch.v1.model.ObjectDefinition;
+import com.google.api.services.cloudsearch.v1.model.PropertyDefinition;
+import com.google.api.services.cloudsearch.v1.model.Schema;
+import com.google.api.services.cloudsearch.v1.model.StructuredDataObject;
+import com.google.api.services.cloudsearch.v1.model.TextPropertyOptions;
+import com.google.api.services.cloudsearch.v1.model.TextValues;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSchemaValidator {
+  private SchemaValidator subject;
+
+  @Before
+  public void setUp() {
+    Schema schema = new Schema().setObjectDefinitions(Arrays.asList(
+        new ObjectDefinition()
+            .setName("page")
+            .setPropertyDefinitions(Arrays.asList(
+                new PropertyDefinition().setName("author").setIsRepeatable(false)
+                    .setTextPropertyOptions(new TextPropertyOptions()),
+                new PropertyDefinition().setName("tags").setIsRepeatable(true)
+                    .setTextPropertyOptions(new TextPropertyOptions()),
+                new PropertyDefinition().setName("approved").setIsRepeatable(false)
+                    .setBooleanPropertyOptions(new BooleanPropertyOptions()),
+                new PropertyDefinition().setName("priority").setIsRepeatable(true)
+                    .setIntegerPropertyOptions(
+                        new IntegerPropertyOptions().setMinimumValue(0L).setMaximumValue(5L)),
+                new PropertyDefinition().setName("status").setIsRepeatable(false)
+                    .setEnumPropertyOptions(new EnumPropertyOptions().setPossibleValues(
+                        Arrays.asList(
+                            new EnumValuePair().setStringValue("DRAFT"),
+                            new EnumValuePair().setStringValue("FINAL"))))))));
+    subject = new SchemaValidator(schema);
+  }
+
+  @Test
+  public void validItemShouldPass() {
+    Item item = item("page",
+        text("author", "jane"),
+        text("tags", "a", "b"),
+        new NamedProperty().setName("approved").setBooleanValue(true),
+        integer("priority", 0L, 5L),
+        enumValue("status", "FINAL"));
+    assertTrue(subject.validate(item, false).isEmpty());
+  }
+
+  @Test
+  public void itemWithoutStructuredDataShouldPass() {
+    assertTrue(subject.validate(new Item().setName("id"), false).isEmpty());
+  }
+
+  @Test
+  public void unknownObjectTypeShouldBeRejectedAndRepaired() {
+    Item item = item("post", text("author", "jane"));
+    assertEquals(1, subject.validate(item, false).size());
+    assertEquals(1, subject.validate(item, true).size());
+    assertNull(item.getStructuredData());
+    assertNull(item.getMetadata().getObjectType());
+    assertTrue(subject.validate(item, false).isEmpty());
+  }
+
+  @Test
+  public void unknownObjectTypeWithoutStructuredDataShouldBeRejectedAndRepaired() {
+    Item item = item("post");
+    assertEquals(Arrays.asList("unknown object type 'post'"), subject.validate(item, false));
+    subject.validate(item, true);
+    assertNull(item.getMetadata().getObjectType());
+    assertTrue(subject.validate(item, false).isEmpty());
+  }
+
+  @Test
+  public void unknownPropertyShouldBeRemoved() {
+    Item item = item("page", text("author", "jane"), text("editor", "joe"));
+    List<String> problems = subject.validate(item, true);
+    assertEquals(Arrays.asList("unknown property 'editor'"), problems);
+    assertEquals(1, properties(item).size());
+  }
+
+  @Test
+  public void wrongTypeShouldBeRemoved() {
+    Item item = item("page", text("approved", "yes"));
+    assertEquals(1, subject.validate(item, true).size());
+    assertTrue(properties(item).isEmpty());
+  }
+
+  @Test
+  public void tooManyValuesShouldBeTruncated() {
+    Item item = item("page", text("author", "jane", "joe"));
+    assertEquals(1, subject.validate(item, true).size());
+    assertEquals(Arrays.asList("jane"), properties(item).get(0).getTextValues().getValues());
+  }
+
+  @Test
+  public void enumMissShouldBeRemoved() {
+    Item item = item("page", enumValue("status", "PUBLISHED"));
+    assertEquals(1, subject.validate(item, true).size());
+    assertTrue(properties(item).isEmpty());
+  }
+
+  @Test
+  public void integersOutOfRangeShouldBeRemoved() {
+    Item item = item("page", integer("priority", -1L, 3L, 6L));
+    assertEquals(1, subject.validate(item, true).size());
+    assertEquals(Arrays.asList(3L), properties(item).get(0).getIntegerValues().getValues());
+  }
+
+  @Test
+  public void rejectModeShouldNotModifyTheItem() {
+    Item item = item("page", text("author", "jane", "joe"), enumValue("status", "PUBLISHED"));
+    assertEquals(2, subject.validate(item, false).size());
+    assertEquals(2, properties(item).size());
+    assertEquals(2, properties(item).get(0).getTextValues().getValues().size());
+  }
+
+  private static Item item(String objectType, NamedProperty... properties) {
+    return new Item()
+        .setName("id")
+        .setMetadata(new ItemMetadata().setObjectType(objectType))
+        .setStructuredData(new ItemStructuredData().setObject(
+            new StructuredDataObject().setProperties(new ArrayList<>(Arrays.asList(properties)))));
+  }
+
+  private static List<NamedProperty> properties(Item item) {
+    return item.getStructuredData().getObject().getProperties();
+  }
+
+  private static NamedProperty text(String name, String... values) {
+    return new NamedProperty().setName(name)
+        .setTextValues(new TextValues().setValues(Arrays.asList(values)));
+  }
+
+  private static NamedProperty integer(String name, Long... values) {
+    return new NamedProperty().setName(name)
+        .setIntegerValues(new IntegerValues().setValues(Arrays.asList(values)));
+  }
+
+  private static NamedProperty enumValue(String name, String... values) {
+    return new NamedProperty().setName(name)
+        .setEnumValues(new EnumValues().setValues(Arrays.asList(values)));
+  }
+}
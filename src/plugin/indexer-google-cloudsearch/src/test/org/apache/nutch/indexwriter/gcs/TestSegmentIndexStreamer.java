@@ -0,0 +1,166 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.indexer.IndexWriter;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.protocol.Content;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestSegmentIndexStreamer {
+  private static final String URL_FETCHED = "http://a.example.com/1";
+  private static final String URL_GONE = "http://a.example.com/2";
+  private static final String URL_UNKNOWN = "http://a.example.com/3";
+  private static final String MIME_HTML = "text/html";
+  private static final String HTML = "<html><title>One</title><body>Hello</body></html>";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock private IndexWriter mockWriter;
+  @Captor private ArgumentCaptor<NutchDocument> docCaptor;
+
+  private Configuration conf;
+  private Path crawlDb;
+  private Path segment;
+  private SegmentIndexStreamer subject;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    Path root = new Path(temporaryFolder.getRoot().getPath());
+    crawlDb = new Path(root, "crawldb");
+    segment = new Path(root, "segments/20190101000000");
+
+    try (MapFile.Writer writer =
+        createWriter(new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class)) {
+      CrawlDatum fetched = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600);
+      fetched.setModifiedTime(1546300800000L);
+      writer.append(new Text(URL_FETCHED), fetched);
+      writer.append(new Text(URL_GONE), new CrawlDatum(CrawlDatum.STATUS_DB_GONE, 3600));
+    }
+    Metadata contentMeta = new Metadata();
+    contentMeta.set("Content-Type", MIME_HTML);
+    try (MapFile.Writer writer =
+        createWriter(new Path(segment, ParseText.DIR_NAME), ParseText.class)) {
+      writer.append(new Text(URL_FETCHED), new ParseText("One Hello"));
+      writer.append(new Text(URL_GONE), new ParseText("Gone"));
+      writer.append(new Text(URL_UNKNOWN), new ParseText("Unknown"));
+    }
+    try (MapFile.Writer writer =
+        createWriter(new Path(segment, ParseData.DIR_NAME), ParseData.class)) {
+      for (String url : new String[] {URL_FETCHED, URL_GONE, URL_UNKNOWN}) {
+        writer.append(new Text(url),
+            new ParseData(ParseStatus.STATUS_SUCCESS, "One", new Outlink[0], contentMeta));
+      }
+    }
+    try (MapFile.Writer writer = createWriter(new Path(segment, Content.DIR_NAME), Content.class)) {
+      for (String url : new String[] {URL_FETCHED, URL_GONE, URL_UNKNOWN}) {
+        writer.append(new Text(url), new Content(url, url,
+            HTML.getBytes(StandardCharsets.UTF_8), MIME_HTML, new Metadata(), conf));
+      }
+    }
+
+    subject = new SegmentIndexStreamer();
+    subject.setConf(conf);
+  }
+
+  @Test
+  public void streamShouldIndexFetchedAndDeleteGoneUrls() throws Exception {
+    subject.stream(crawlDb, Collections.singletonList(segment), mockWriter, 2, true, true);
+
+    verify(mockWriter).write(docCaptor.capture());
+    verify(mockWriter).delete(URL_GONE);
+    NutchDocument doc = docCaptor.getValue();
+    assertEquals(URL_FETCHED, doc.getFieldValue(GoogleCloudSearchIndexWriter.FIELD_ID));
+    assertEquals(URL_FETCHED, doc.getFieldValue(GoogleCloudSearchIndexWriter.FIELD_URL));
+    assertEquals(MIME_HTML, doc.getFieldValue(GoogleCloudSearchIndexWriter.FIELD_CONTENT_TYPE));
+    assertEquals("One", doc.getFieldValue("title"));
+    assertEquals("One Hello", doc.getFieldValue(GoogleCloudSearchIndexWriter.FIELD_TEXT_CONTENT));
+    assertEquals(
+        Base64.getEncoder().encodeToString(HTML.getBytes(StandardCharsets.UTF_8)),
+        doc.getFieldValue(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT));
+    assertEquals("2019-01-01T00:00:00.000Z", doc.getFieldValue("lastModified"));
+    assertEquals(1, subject.getIndexedCount());
+    assertEquals(1, subject.getDeletedCount());
+    assertEquals(1, subject.getSkippedCount());
+  }
+
+  @Test
+  public void streamShouldSkipGoneUrlsAndBinaryContentWhenNotRequested() throws Exception {
+    subject.stream(crawlDb, Collections.singletonList(segment), mockWriter, 1, false, false);
+
+    verify(mockWriter).write(docCaptor.capture());
+    verify(mockWriter, never()).delete(any());
+    assertNull(docCaptor.getValue().getFieldValue(GoogleCloudSearchIndexWriter.FIELD_RAW_CONTENT));
+    assertEquals(2, subject.getSkippedCount());
+  }
+
+  @Test
+  public void streamShouldCountFailedDocumentsAndContinue() throws Exception {
+    doThrow(new IOException("ContentType ('type') field is missing"))
+        .when(mockWriter).write(any());
+    doThrow(new IllegalStateException("Service is not running"))
+        .when(mockWriter).delete(URL_GONE);
+
+    subject.stream(crawlDb, Collections.singletonList(segment), mockWriter, 1, true, true);
+
+    verify(mockWriter).write(any());
+    verify(mockWriter).delete(URL_GONE);
+    assertEquals(0, subject.getIndexedCount());
+    assertEquals(0, subject.getDeletedCount());
+    assertEquals(1, subject.getSkippedCount());
+    assertEquals(2, subject.getFailedCount());
+  }
+
+  @Test
+  public void runShouldPrintUsageForMissingOrInvalidThreads() throws Exception {
+    String[] base = {crawlDb.toString(), segment.toString(), "-threads"};
+    assertEquals(-1, subject.run(base));
+    for (String threads : new String[] {"many", "0", "-2"}) {
+      String[] args = Arrays.copyOf(base, base.length + 1);
+      args[base.length] = threads;
+      assertEquals(-1, subject.run(args));
+    }
+  }
+
+  private MapFile.Writer createWriter(Path dir, Class<? extends Writable> valueClass)
+      throws IOException {
+    return new MapFile.Writer(
+        conf,
+        new Path(dir, "part-r-00000"),
+        MapFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(valueClass));
+  }
+}
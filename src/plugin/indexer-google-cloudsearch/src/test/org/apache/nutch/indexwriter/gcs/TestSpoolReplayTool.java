@@ -0,0 +1,154 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.Operation;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.ContentFormat;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService.RequestMode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.indexwriter.gcs.GoogleCloudSearchIndexWriter.Helper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestSpoolReplayTool {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock private Helper mockHelper;
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private IndexingService mockIndexingService;
+
+  private FileSystem fs;
+  private Path directory;
+  private SpoolReplayTool subject;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = FileSystem.getLocal(new Configuration());
+    directory = new Path(temporaryFolder.getRoot().getPath());
+    subject = new SpoolReplayTool(mockHelper);
+    subject.setConf(new Configuration());
+
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, directory, "task1", "attempt1", 1, 1024 * 1024);
+    spool.writeIndex(
+        new Item().setName("id1"),
+        new ByteArrayContent("text/plain", "Test".getBytes(StandardCharsets.UTF_8)),
+        ContentFormat.RAW);
+    spool.writeDelete("id2", "1".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+  }
+
+  @Test
+  public void replayShouldSendAllRecordsAndMarkSegmentsDone() throws Exception {
+    stubIndexingService();
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    when(mockIndexingService.deleteItem(any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+
+    assertTrue(subject.replay(directory, "/path/to/config", 10));
+
+    verify(mockIndexingService)
+        .indexItemAndContent(
+            eq(new Item().setName("id1")),
+            any(),
+            eq(null),
+            eq(ContentFormat.RAW),
+            eq(RequestMode.ASYNCHRONOUS));
+    verify(mockIndexingService)
+        .deleteItem(eq("id2"), eq("1".getBytes(StandardCharsets.UTF_8)),
+            eq(RequestMode.ASYNCHRONOUS));
+    for (Path segment : ItemSpoolWriter.listSegments(fs, directory)) {
+      assertTrue(fs.exists(SpoolReplayTool.doneMarker(segment)));
+    }
+  }
+
+  @Test
+  public void replayShouldResumeWithIncompleteSegments() throws Exception {
+    stubIndexingService();
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenReturn(Futures.immediateFailedFuture(new IOException("quota exceeded")))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+    when(mockIndexingService.deleteItem(any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(new Operation()));
+
+    assertFalse(subject.replay(directory, "/path/to/config", 10));
+    assertTrue(subject.replay(directory, "/path/to/config", 10));
+
+    verify(mockIndexingService, times(2)).indexItemAndContent(any(), any(), any(), any(), any());
+    verify(mockIndexingService, times(1)).deleteItem(any(), any(), any());
+  }
+
+  @Test
+  public void replayShouldSendRequestsForTheSameItemInOrder() throws Exception {
+    stubIndexingService();
+    Path ordered = new Path(temporaryFolder.newFolder().getPath());
+    ItemSpoolWriter spool = new ItemSpoolWriter(fs, ordered, "task1", "attempt1", 1, 1024 * 1024);
+    spool.writeIndex(
+        new Item().setName("id1"),
+        new ByteArrayContent("text/plain", "Test".getBytes(StandardCharsets.UTF_8)),
+        ContentFormat.RAW);
+    spool.writeDelete("id1", "1".getBytes(StandardCharsets.UTF_8));
+    spool.close();
+    SettableFuture<Operation> indexed = SettableFuture.create();
+    when(mockIndexingService.indexItemAndContent(any(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              new Thread(
+                      () -> {
+                        sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+                        indexed.set(new Operation());
+                      })
+                  .start();
+              return indexed;
+            });
+    AtomicBoolean deletedAfterIndexed = new AtomicBoolean();
+    when(mockIndexingService.deleteItem(any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              deletedAfterIndexed.set(indexed.isDone());
+              return Futures.immediateFuture(new Operation());
+            });
+
+    assertTrue(subject.replay(ordered, "/path/to/config", 10));
+
+    assertTrue(deletedAfterIndexed.get());
+  }
+
+  @Test
+  public void runShouldPrintUsageForInvalidNumbers() throws Exception {
+    assertEquals(-1, subject.run(new String[] {
+        directory.toString(), "-config", "/path/to/config", "-maxInFlight", "many"}));
+  }
+
+  private void stubIndexingService() throws Exception {
+    when(mockHelper.isConfigInitialized()).thenReturn(true);
+    when(mockHelper.createIndexingService()).thenReturn(mockIndexingService);
+  }
+}
@@ -0,0 +1,165 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestUploadLedger {
+  private static final TaskAttemptID FIRST_ATTEMPT =
+      TaskAttemptID.forName("attempt_1540000000000_0001_r_000003_0");
+  private static final TaskAttemptID SECOND_ATTEMPT =
+      TaskAttemptID.forName("attempt_1540000000000_0001_r_000003_1");
+  private static final TaskAttemptID OTHER_TASK =
+      TaskAttemptID.forName("attempt_1540000000000_0001_r_000004_0");
+
+  private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private FileSystem fs;
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = FileSystem.getLocal(new Configuration());
+    directory = new Path(temporaryFolder.getRoot().getAbsolutePath());
+  }
+
+  @Test
+  public void siblingAttemptShouldSeeAcknowledgedRequests() throws IOException {
+    try (UploadLedger first = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE)) {
+      assertEquals(0, first.getDeliveredBySiblingsCount());
+      SettableFuture<Object> acknowledged = SettableFuture.create();
+      SettableFuture<Object> failed = SettableFuture.create();
+      SettableFuture<Object> pending = SettableFuture.create();
+      first.recordWhenAcknowledged(UploadLedger.OP_INDEX, "a", () -> acknowledged).get();
+      first.recordWhenAcknowledged(UploadLedger.OP_INDEX, "b", () -> failed).get();
+      first.recordWhenAcknowledged(UploadLedger.OP_INDEX, "c", () -> pending).get();
+      first.recordWhenAcknowledged(UploadLedger.OP_DELETE, "d", () -> null).get();
+      first.record(UploadLedger.OP_DELETE, "e");
+      acknowledged.set(new Object());
+      failed.setException(new IOException("quota exceeded"));
+      assertEquals(2, first.getRecordedCount());
+    }
+
+    try (UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, MAX_AGE)) {
+      assertEquals(2, second.getDeliveredBySiblingsCount());
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "a"));
+      assertTrue(second.isDelivered(UploadLedger.OP_DELETE, "e"));
+      assertFalse(second.isDelivered(UploadLedger.OP_DELETE, "a"));
+      assertFalse(second.isDelivered(UploadLedger.OP_INDEX, "b"));
+      assertFalse(second.isDelivered(UploadLedger.OP_INDEX, "c"));
+      assertFalse(second.isDelivered(UploadLedger.OP_DELETE, "d"));
+    }
+  }
+
+  @Test
+  public void ledgersOfOtherTasksShouldBeIgnored() throws IOException {
+    try (UploadLedger other = UploadLedger.open(fs, directory, OTHER_TASK, MAX_AGE)) {
+      other.record(UploadLedger.OP_INDEX, "a");
+    }
+    try (UploadLedger first = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE)) {
+      assertFalse(first.isDelivered(UploadLedger.OP_INDEX, "a"));
+    }
+  }
+
+  @Test
+  public void partialLastLineShouldBeIgnored() throws IOException {
+    Path taskDirectory = new Path(new Path(directory, FIRST_ATTEMPT.getJobID().toString()),
+        FIRST_ATTEMPT.getTaskID().toString());
+    fs.mkdirs(taskDirectory);
+    try (OutputStream out =
+        fs.create(new Path(taskDirectory, FIRST_ATTEMPT + UploadLedger.LEDGER_SUFFIX))) {
+      out.write("index\thttp://x.yz/a\nindex\thttp://x.yz/ab".getBytes(StandardCharsets.UTF_8));
+    }
+    try (UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, MAX_AGE)) {
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "http://x.yz/a"));
+      assertFalse(second.isDelivered(UploadLedger.OP_INDEX, "http://x.yz/ab"));
+    }
+  }
+
+  @Test
+  public void recordsOfConcurrentSiblingShouldBeSeenAfterRefresh() throws IOException {
+    try (UploadLedger first = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE);
+        UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, MAX_AGE)) {
+      first.record(UploadLedger.OP_INDEX, "a");
+      first.close();
+      second.refresh();
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "a"));
+      assertEquals(1, second.getDeliveredBySiblingsCount());
+    }
+  }
+
+  @Test
+  public void refreshShouldReadLinesCompletedSinceTheLastRefresh() throws IOException {
+    Path taskDirectory = new Path(new Path(directory, FIRST_ATTEMPT.getJobID().toString()),
+        FIRST_ATTEMPT.getTaskID().toString());
+    Path firstLedger = new Path(taskDirectory, FIRST_ATTEMPT + UploadLedger.LEDGER_SUFFIX);
+    fs.mkdirs(taskDirectory);
+    try (OutputStream out = fs.create(firstLedger)) {
+      out.write("index\ta\nindex\tb".getBytes(StandardCharsets.UTF_8));
+    }
+    try (UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, MAX_AGE)) {
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "a"));
+      assertFalse(second.isDelivered(UploadLedger.OP_INDEX, "b"));
+      try (OutputStream out = fs.create(firstLedger, true)) {
+        out.write("index\ta\nindex\tbc\ndelete\td\n".getBytes(StandardCharsets.UTF_8));
+      }
+      second.refresh();
+      assertFalse(second.isDelivered(UploadLedger.OP_INDEX, "b"));
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "bc"));
+      assertTrue(second.isDelivered(UploadLedger.OP_DELETE, "d"));
+      assertEquals(3, second.getDeliveredBySiblingsCount());
+    }
+  }
+
+  @Test
+  public void expiredDirectoriesOfOtherJobsShouldBeDeleted() throws IOException {
+    Path expired = new Path(directory, "job_1530000000000_0001");
+    Path recent = new Path(directory, "job_1530000000000_0002");
+    fs.mkdirs(new Path(expired, "task_1530000000000_0001_r_000000"));
+    fs.mkdirs(recent);
+    fs.setTimes(expired, System.currentTimeMillis() - 2 * MAX_AGE, -1);
+    try (UploadLedger first = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE)) {
+      assertFalse(fs.exists(expired));
+      assertTrue(fs.exists(recent));
+    }
+    fs.setTimes(recent, System.currentTimeMillis() - 2 * MAX_AGE, -1);
+    try (UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, 0)) {
+      assertTrue(fs.exists(recent));
+    }
+  }
+
+  @Test
+  public void recordsAfterCloseShouldBeIgnored() throws IOException {
+    UploadLedger ledger = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE);
+    SettableFuture<Object> late = SettableFuture.create();
+    ledger.recordWhenAcknowledged(UploadLedger.OP_INDEX, "a", () -> late).get();
+    ledger.close();
+    late.set(new Object());
+    ledger.record(UploadLedger.OP_INDEX, "b");
+    assertEquals(0, ledger.getRecordedCount());
+
+    File ledgerFile = new File(temporaryFolder.getRoot(), FIRST_ATTEMPT.getJobID() + "/"
+        + FIRST_ATTEMPT.getTaskID() + "/" + FIRST_ATTEMPT + UploadLedger.LEDGER_SUFFIX);
+    List<String> lines = Files.readAllLines(ledgerFile.toPath());
+    assertTrue(lines.isEmpty());
+  }
+}
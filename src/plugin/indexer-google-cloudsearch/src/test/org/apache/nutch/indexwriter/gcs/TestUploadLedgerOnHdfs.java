@@ -0,0 +1,75 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the ledgers of concurrent attempts on HDFS, where the length listed for a file that is
+ * still being written does not include the data flushed to its last block.
+ */
+public class TestUploadLedgerOnHdfs {
+  private static final TaskAttemptID FIRST_ATTEMPT =
+      TaskAttemptID.forName("attempt_1540000000000_0001_r_000003_0");
+  private static final TaskAttemptID SECOND_ATTEMPT =
+      TaskAttemptID.forName("attempt_1540000000000_0001_r_000003_1");
+
+  private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+  @ClassRule public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static MiniDFSCluster cluster;
+
+  @BeforeClass
+  public static void startCluster() throws IOException {
+    Configuration conf = new Configuration();
+    conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, temporaryFolder.getRoot().getAbsolutePath());
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+  }
+
+  @AfterClass
+  public static void stopCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void openSiblingLedgersShouldSeeEachOthersFlushedRecords() throws IOException {
+    FileSystem fs = cluster.getFileSystem();
+    Path directory = new Path("/ledgers");
+    try (UploadLedger first = UploadLedger.open(fs, directory, FIRST_ATTEMPT, MAX_AGE);
+        UploadLedger second = UploadLedger.open(fs, directory, SECOND_ATTEMPT, MAX_AGE)) {
+      first.record(UploadLedger.OP_INDEX, "a");
+      first.flush();
+      second.record(UploadLedger.OP_DELETE, "b");
+      second.flush();
+      // Both ledgers are still open, so their data is only visible by reading them
+      first.refresh();
+      second.refresh();
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "a"));
+      assertTrue(first.isDelivered(UploadLedger.OP_DELETE, "b"));
+      assertFalse(second.isDelivered(UploadLedger.OP_DELETE, "b"));
+
+      first.record(UploadLedger.OP_INDEX, "c");
+      first.flush();
+      second.refresh();
+      assertTrue(second.isDelivered(UploadLedger.OP_INDEX, "c"));
+      assertEquals(2, second.getDeliveredBySiblingsCount());
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.apache.nutch.indexwriter.gcs;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.nutch.indexer.IndexWriterParams;
+
+/**
+ * Compares the HTTP transports of {@link HttpTransportFactory} under concurrent uploads.
+ *
+ * <p>A local HTTP server stands in for the indexing API: it reads each request body and answers
+ * with an empty JSON object. The benchmark reports requests per second and the number of distinct
+ * client connections the server saw, which is where connection churn shows up. The stand-in
+ * speaks plain HTTP, so TLS handshake savings come on top of the reported numbers.
+ *
+ * <p>Run from the project root with:
+ *
+ * <pre>
+ *   mvn -Pbenchmark test-compile exec:java \
+ *       -Dbenchmark.mainClass=org.apache.nutch.indexwriter.gcs.TransportBenchmark \
+ *       -Dbenchmark.args="[threads] [requests] [body_bytes] [max_connections]"
+ * </pre>
+ */
+public class TransportBenchmark {
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    int bodyBytes = args.length > 2 ? Integer.parseInt(args[2]) : 16 * 1024;
+    String maxConnections = args.length > 3 ? args[3] : "8";
+
+    Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+    server.createContext("/", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      byte[] buffer = new byte[8192];
+      try (InputStream in = exchange.getRequestBody()) {
+        while (in.read(buffer) != -1) {
+          // discard
+        }
+      }
+      byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(response);
+      }
+    });
+    server.setExecutor(Executors.newFixedThreadPool(threads));
+    server.start();
+    GenericUrl url =
+        new GenericUrl("http://localhost:" + server.getAddress().getPort() + "/v1/media/upload");
+    byte[] body = new byte[bodyBytes];
+
+    try {
+      Map<String, String> params = new HashMap<>();
+      params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT, "APACHE");
+      params.put(GoogleCloudSearchIndexWriter.CONFIG_KEY_TRANSPORT_MAX_CONNECTIONS, maxConnections);
+      HttpTransport apache =
+          HttpTransportFactory.fromParameters(new IndexWriterParams(params))
+              .createTransport(Proxy.NO_PROXY);
+      HttpTransport netHttp = new NetHttpTransport();
+      for (int round = 0; round < 2; round++) {
+        boolean report = round > 0;
+        run("NetHttpTransport (SDK default)", netHttp, url, body, threads, requests, clientPorts,
+            report);
+        run("APACHE, " + maxConnections + " pooled connections", apache, url, body, threads,
+            requests, clientPorts, report);
+      }
+      apache.shutdown();
+    } finally {
+      server.stop(0);
+      ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+  }
+
+  private static void run(
+      String label,
+      HttpTransport transport,
+      GenericUrl url,
+      byte[] body,
+      int threads,
+      int requests,
+      Set<Integer> clientPorts,
+      boolean report)
+      throws Exception {
+    clientPorts.clear();
+    HttpRequestFactory requestFactory = transport.createRequestFactory();
+    AtomicInteger remaining = new AtomicInteger(requests);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    List<Future<?>> results = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      results.add(executor.submit(() -> {
+        while (remaining.getAndDecrement() > 0) {
+          HttpResponse response =
+              requestFactory
+                  .buildPostRequest(url, new ByteArrayContent("application/octet-stream", body))
+                  .execute();
+          try {
+            response.parseAsString();
+          } finally {
+            // Releases the connection for reuse, unlike disconnect().
+            response.ignore();
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    executor.shutdown();
+    if (report) {
+      System.out.printf("%-40s %10.0f requests/s %8d connections%n",
+          label, requests / seconds, clientPorts.size());
+    }
+  }
+}